@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.AuthenticationAttributes;
+
+import java.time.Duration;
+
+/**
+ * Remembers for a short time the account records that the JSON service returned, when the JSON service does not
+ * verify the password, and the record of a user therefore does not depend on the password that is verified. A record
+ * is not remembered when the entry of the user was invalidated while the record was being read.
+ */
+final class AccountRecordCache
+{
+    private final Cache<String, AuthenticationAttributes> _records;
+    private final SubjectGenerations _generations = new SubjectGenerations();
+
+    AccountRecordCache(CredentialAccessConfiguration.AccountRecordCache configuration)
+    {
+        _records = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maxEntries())
+                .expireAfterWrite(Duration.ofSeconds(configuration.timeToLive()))
+                .build();
+    }
+
+    /**
+     * @return the account record of the user, or null if it was not read recently
+     */
+    @Nullable
+    AuthenticationAttributes get(String userName)
+    {
+        return _records.getIfPresent(userName);
+    }
+
+    /**
+     * @return the generation of the entry of the user, to be taken before the record is requested
+     */
+    long generation(String userName)
+    {
+        return _generations.current(userName);
+    }
+
+    /**
+     * Remember the record, unless the entry of the user was invalidated after the given generation was taken.
+     */
+    void put(String userName, AuthenticationAttributes record, long generation)
+    {
+        if (!_generations.isCurrent(userName, generation))
+        {
+            return;
+        }
+
+        _records.put(userName, record);
+
+        // An invalidation may have run between the check and the put, and then missed the new record
+        if (!_generations.isCurrent(userName, generation))
+        {
+            _records.asMap().remove(userName, record);
+        }
+    }
+
+    void invalidate(String userName)
+    {
+        _generations.advance(userName);
+        _records.invalidate(userName);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+/**
+ * Statistics of the cache of attributes.
+ *
+ * @param lookups the number of lookups of attributes
+ * @param hits the number of lookups that were answered from the cache without waiting for the JSON service
+ * @param staleServed the number of lookups that were answered with attributes that were older than their time to
+ *                    live, while they were read again or because the JSON service failed
+ * @param refreshes the number of times attributes were read again in the background
+ */
+public record AttributeCacheStats(long lookups, long hits, long staleServed, long refreshes)
+{
+    public double hitRatio()
+    {
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.Arrays;
+
+/**
+ * A request for the attributes of a subject, as it is sent to the JSON service. Two requests for attributes are
+ * equal if they would result in the same HTTP request.
+ *
+ * @param path the request path, with the subject substituted
+ * @param queryParameters the query parameters as pairs of names and values, including mapped parameters
+ * @param headerParameters the header parameters as pairs of names and values, including mapped parameters, as they
+ *                         are sent
+ */
+record AttributeRequest(String path, String[] queryParameters, String[] headerParameters)
+{
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof AttributeRequest request
+                && path.equals(request.path)
+                && Arrays.equals(queryParameters, request.queryParameters)
+                && Arrays.equals(headerParameters, request.headerParameters);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * (31 * path.hashCode() + Arrays.hashCode(queryParameters)) + Arrays.hashCode(headerParameters);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeRequest[path=" + path + ", queryParameters=" + Arrays.toString(queryParameters) + "]";
+    }
+}
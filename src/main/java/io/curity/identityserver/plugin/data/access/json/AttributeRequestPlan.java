@@ -0,0 +1,328 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration;
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration.ProvideSubject.Parameter;
+import io.curity.identityserver.plugin.data.access.json.parameter.AttributeLookupMapping;
+import io.curity.identityserver.plugin.data.access.json.parameter.ParameterMapping;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.SubjectAttributes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * How the request for the attributes of a subject is made, compiled once from the configuration, so that creating
+ * a request only takes a single pass over the parameters that are mapped from attributes.
+ *
+ * <p>The parameters of each kind are compiled into a template of name and value pairs, in the order of the
+ * configuration with the username parameter first. A later parameter with the same name takes the place of an earlier
+ * one. Static values are encoded for the way they are provided and written into the template when the plan is
+ * compiled, so a request copies the template and only writes the subject and the values of attributes into it.
+ *
+ * <p>If a projection is configured, the names of the projected attributes are always sent as a query parameter,
+ * whichever way the username is provided.
+ */
+final class AttributeRequestPlan
+{
+    private static final String SUBJECT_PLACEHOLDER = ":subject";
+    private static final String[] NO_PARAMETERS = new String[0];
+
+    private final @Nullable String _urlPath;
+    private final boolean _subjectInPath;
+    private final @Nullable Set<String> _projectedAttributes;
+    private final CompiledParameters _queryParameters;
+    private final CompiledParameters _headerParameters;
+
+    AttributeRequestPlan(AttributesConfiguration configuration)
+    {
+        Optional<String> urlPath = configuration.provideSubject().urlPath();
+        Optional<Parameter> parameter = configuration.provideSubject().parameter();
+
+        _urlPath = urlPath.orElseGet(() -> parameter.map(Parameter::urlPath).orElse(null));
+        _subjectInPath = urlPath.isPresent();
+
+        Optional<AttributesConfiguration.Projection> projection = configuration.projection();
+        _projectedAttributes = projection.map(value -> Set.copyOf(value.attribute())).orElse(null);
+
+        @Nullable Parameter.ProvideAs provideAs = parameter.map(Parameter::provideAs).orElse(null);
+        CompiledParameters.Builder query = new CompiledParameters.Builder(Parameter.ProvideAs.QUERY_PARAMETER);
+        CompiledParameters.Builder header = new CompiledParameters.Builder(Parameter.ProvideAs.HEADER_PARAMETER);
+        // null if not configured to use parameters
+        @Nullable CompiledParameters.Builder mapped = provideAs == Parameter.ProvideAs.QUERY_PARAMETER ? query
+                : provideAs == Parameter.ProvideAs.HEADER_PARAMETER ? header : null;
+
+        if (mapped != null)
+        {
+            mapped.addSubject(parameter.get().usernameParameter());
+
+            for (AttributesConfiguration.ParameterMappingConfiguration mappingConfig :
+                    configuration.parameterMappings().parameterMapping())
+            {
+                @Nullable String staticValue = staticValueOf(mappingConfig);
+
+                if (staticValue != null)
+                {
+                    mapped.addStatic(mappingConfig.parameterName(), staticValue);
+                }
+                else
+                {
+                    mapped.addMapped(mappingConfig.parameterName(), attributeMapping(mappingConfig));
+                }
+            }
+        }
+
+        projection.ifPresent(value -> query.addStatic(value.queryParameter(), String.join(",", value.attribute())));
+
+        _queryParameters = query.build();
+        _headerParameters = header.build();
+    }
+
+    String path(String subject)
+    {
+        if (_urlPath == null)
+        {
+            throw new IllegalStateException("One-of was not set to any value");
+        }
+
+        // if the choice is to use a urlPath, substitute the subject, otherwise the subject is provided as a parameter
+        return _subjectInPath ? _urlPath.replace(SUBJECT_PLACEHOLDER, WebUtils.urlEncode(subject)) : _urlPath;
+    }
+
+    /**
+     * @return the names of the top-level attributes to read from the response, or null if all attributes are read
+     */
+    @Nullable
+    Set<String> projectedAttributes()
+    {
+        return _projectedAttributes;
+    }
+
+    /**
+     * @return the query parameters as pairs of names and values, including the projection
+     */
+    String[] queryParameters(SubjectAttributes subjectAttributes)
+    {
+        return _queryParameters.write(subjectAttributes);
+    }
+
+    /**
+     * @return the header parameters as pairs of names and encoded values, as they are passed to
+     * {@link se.curity.identityserver.sdk.http.HttpRequest.Builder#header(String...)}
+     */
+    String[] headerParameters(SubjectAttributes subjectAttributes)
+    {
+        return _headerParameters.write(subjectAttributes);
+    }
+
+    private static String encode(Parameter.ProvideAs provideAs, String value)
+    {
+        switch (provideAs)
+        {
+            case HEADER_PARAMETER:
+                return Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+            case QUERY_PARAMETER:
+                // Possible URL-encoding is not the JSON DAP's, but the WebServiceClient's responsibility
+                return value;
+            default:
+                throw new IllegalArgumentException("Unknown ProvideAs instance: " + provideAs);
+        }
+    }
+
+    private static @Nullable String staticValueOf(AttributesConfiguration.ParameterMappingConfiguration mappingConfig)
+    {
+        return mappingConfig.value()
+                .filter(value -> value.useValueOfAttribute().isEmpty())
+                .flatMap(AttributesConfiguration.ParameterMappingConfiguration.Value::staticValue)
+                .orElse(null);
+    }
+
+    private static ParameterMapping attributeMapping(AttributesConfiguration.ParameterMappingConfiguration mappingConfig)
+    {
+        Optional<AttributesConfiguration.ParameterMappingConfiguration.Value> optionalValue = mappingConfig.value();
+
+        if (!optionalValue.isPresent())
+        {
+            // use the value of the attribute unchanged
+            return new AttributeLookupMapping(mappingConfig.parameterName(), mappingConfig.parameterName());
+        }
+
+        AttributesConfiguration.ParameterMappingConfiguration.Value value = optionalValue.get();
+
+        if (value.useValueOfAttribute().isPresent())
+        {
+            return new AttributeLookupMapping(mappingConfig.parameterName(),
+                    value.useValueOfAttribute().get());
+        }
+
+        throw new IllegalStateException("One-of ParameterMappingConfiguration did not have any value set");
+    }
+
+    /**
+     * The parameters of one kind, as a template of name and value pairs that holds the static values, and the
+     * positions in the template that the subject and the values of attributes are written to.
+     */
+    private static final class CompiledParameters
+    {
+        private final Parameter.ProvideAs _provideAs;
+        private final String[] _template;
+        // The position of the value of the subject in the template, or -1 if a static value took its place
+        private final int _subjectPosition;
+        private final int[] _mappedPositions;
+        private final ParameterMapping[] _mappings;
+        // Whether a value may be left out, because only mappings of attributes that may be missing write it
+        private final boolean _mayOmit;
+
+        private CompiledParameters(Builder builder)
+        {
+            _provideAs = builder._provideAs;
+            _template = builder._template.toArray(NO_PARAMETERS);
+            _subjectPosition = builder._subjectPosition;
+            _mappedPositions = builder._mappedPositions.stream().mapToInt(Integer::intValue).toArray();
+            _mappings = builder._mappings.toArray(new ParameterMapping[0]);
+            _mayOmit = mayOmit(_template, _subjectPosition);
+        }
+
+        String[] write(SubjectAttributes subjectAttributes)
+        {
+            if (_template.length == 0)
+            {
+                return NO_PARAMETERS;
+            }
+
+            String[] parameters = _template.clone();
+
+            if (_subjectPosition >= 0)
+            {
+                parameters[_subjectPosition] = encode(_provideAs, subjectAttributes.getSubject());
+            }
+
+            for (int i = 0; i < _mappings.length; i++)
+            {
+                @Nullable String mappedValue = _mappings[i].getMappedValue(subjectAttributes);
+
+                if (mappedValue != null)
+                {
+                    parameters[_mappedPositions[i]] = encode(_provideAs, mappedValue);
+                }
+            }
+
+            return _mayOmit ? withoutMissingValues(parameters) : parameters;
+        }
+
+        private static boolean mayOmit(String[] template, int subjectPosition)
+        {
+            for (int i = 1; i < template.length; i += 2)
+            {
+                if (template[i] == null && i != subjectPosition)
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private static String[] withoutMissingValues(String[] parameters)
+        {
+            int length = 0;
+
+            for (int i = 0; i < parameters.length; i += 2)
+            {
+                if (parameters[i + 1] != null)
+                {
+                    parameters[length++] = parameters[i];
+                    parameters[length++] = parameters[i + 1];
+                }
+            }
+
+            return length == parameters.length ? parameters : Arrays.copyOf(parameters, length);
+        }
+
+        private static final class Builder
+        {
+            private final Parameter.ProvideAs _provideAs;
+            private final List<String> _template = new ArrayList<>();
+            private final Map<String, Integer> _positions = new HashMap<>();
+            private final List<Integer> _mappedPositions = new ArrayList<>();
+            private final List<ParameterMapping> _mappings = new ArrayList<>();
+            private int _subjectPosition = -1;
+
+            private Builder(Parameter.ProvideAs provideAs)
+            {
+                _provideAs = provideAs;
+            }
+
+            private void addSubject(String name)
+            {
+                _subjectPosition = positionOf(name);
+            }
+
+            private void addStatic(String name, String value)
+            {
+                int position = positionOf(name);
+                _template.set(position, encode(_provideAs, value));
+
+                // The static value takes the place of what was written to the same position before
+                if (_subjectPosition == position)
+                {
+                    _subjectPosition = -1;
+                }
+
+                for (int i = _mappedPositions.size() - 1; i >= 0; i--)
+                {
+                    if (_mappedPositions.get(i) == position)
+                    {
+                        _mappedPositions.remove(i);
+                        _mappings.remove(i);
+                    }
+                }
+            }
+
+            private void addMapped(String name, ParameterMapping mapping)
+            {
+                _mappedPositions.add(positionOf(name));
+                _mappings.add(mapping);
+            }
+
+            /**
+             * @return the position of the value of the parameter in the template, which is added if it is new
+             */
+            private int positionOf(String name)
+            {
+                return _positions.computeIfAbsent(name, key -> {
+                    _template.add(key);
+                    _template.add(null);
+                    return _template.size() - 1;
+                });
+            }
+
+            private CompiledParameters build()
+            {
+                return new CompiledParameters(this);
+            }
+        }
+    }
+}
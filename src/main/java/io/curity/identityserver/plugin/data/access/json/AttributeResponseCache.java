@@ -0,0 +1,205 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.AttributeTableView;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Cache of the attributes read from the JSON service, keyed on the request that was made to read them.
+ *
+ * <p>Within their time to live, cached attributes are used without making a request. After that, they are
+ * revalidated: the loader is given the cached entry, so that it can make a conditional request and reuse the
+ * attributes that were already decoded if they were not modified. Within the stale-while-revalidate window after the
+ * time to live, the cached attributes are used while they are revalidated in the background. Within the
+ * stale-if-error window, they are used when the JSON service fails, which includes requests that are rejected by the
+ * circuit breaker or the concurrency limit, or that miss their deadline.
+ *
+ * <p>Responses without validators are only cached if they have a time to live. Server errors are never cached.
+ */
+final class AttributeResponseCache
+{
+    private static final Logger _logger = LoggerFactory.getLogger(AttributeResponseCache.class);
+
+    private final Cache<AttributeRequest, CachedEntry> _cache;
+    private final long _timeToLiveNanos;
+    private final long _staleWhileRevalidateNanos;
+    private final long _staleIfErrorNanos;
+    private final Set<AttributeRequest> _refreshing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder _lookups = new LongAdder();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _staleServed = new LongAdder();
+    private final LongAdder _refreshes = new LongAdder();
+
+    AttributeResponseCache(AttributesConfiguration.AttributeCache configuration)
+    {
+        _timeToLiveNanos = TimeUnit.SECONDS.toNanos(configuration.timeToLive());
+        _staleWhileRevalidateNanos = TimeUnit.SECONDS.toNanos(configuration.staleWhileRevalidate());
+        _staleIfErrorNanos = TimeUnit.SECONDS.toNanos(configuration.staleIfError());
+
+        long retainedSeconds = Math.max(configuration.revalidationPeriod(), configuration.timeToLive()
+                + Math.max(configuration.staleWhileRevalidate(), configuration.staleIfError()));
+
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maxEntries())
+                .expireAfterWrite(Duration.ofSeconds(retainedSeconds))
+                .build();
+    }
+
+    /**
+     * @param loader loads the attributes, given the request and the cached entry or null
+     */
+    AttributeTableView get(AttributeRequest request, BiFunction<AttributeRequest, Entry, Entry> loader)
+    {
+        _lookups.increment();
+
+        @Nullable CachedEntry cached = _cache.getIfPresent(request);
+        long age = cached != null ? System.nanoTime() - cached.storedAt() : Long.MAX_VALUE;
+
+        if (cached != null && age < _timeToLiveNanos)
+        {
+            _hits.increment();
+            return cached.entry().attributes();
+        }
+
+        if (cached != null && age - _timeToLiveNanos < _staleWhileRevalidateNanos)
+        {
+            _hits.increment();
+            _staleServed.increment();
+            refreshInBackground(request, cached, loader);
+            return cached.entry().attributes();
+        }
+
+        Entry loaded;
+
+        try
+        {
+            loaded = loader.apply(request, cached != null ? cached.entry() : null);
+        }
+        catch (RuntimeException e)
+        {
+            if (!isWithinStaleIfError(cached, age))
+            {
+                throw e;
+            }
+
+            _logger.debug("Using cached attributes of {}, because the JSON service failed", request.path(), e);
+            _staleServed.increment();
+
+            return cached.entry().attributes();
+        }
+
+        if (loaded.serverError() && isWithinStaleIfError(cached, age))
+        {
+            _logger.debug("Using cached attributes of {}, because the JSON service failed", request.path());
+            _staleServed.increment();
+
+            return cached.entry().attributes();
+        }
+
+        store(request, loaded);
+
+        return loaded.attributes();
+    }
+
+    AttributeCacheStats stats()
+    {
+        return new AttributeCacheStats(_lookups.sum(), _hits.sum(), _staleServed.sum(), _refreshes.sum());
+    }
+
+    private boolean isWithinStaleIfError(@Nullable CachedEntry cached, long age)
+    {
+        return cached != null && age - _timeToLiveNanos < _staleIfErrorNanos;
+    }
+
+    private void refreshInBackground(AttributeRequest request, CachedEntry cached,
+                                     BiFunction<AttributeRequest, Entry, Entry> loader)
+    {
+        if (!_refreshing.add(request))
+        {
+            return;
+        }
+
+        _refreshes.increment();
+
+        BackgroundTasks.executor().execute(() -> {
+            try
+            {
+                Entry loaded = loader.apply(request, cached.entry());
+
+                // A failed refresh leaves the stale attributes in place, for as long as they may be used
+                if (!loaded.serverError())
+                {
+                    store(request, loaded);
+                }
+            }
+            catch (RuntimeException e)
+            {
+                _logger.debug("Could not refresh the cached attributes of {}", request.path(), e);
+            }
+            finally
+            {
+                _refreshing.remove(request);
+            }
+        });
+    }
+
+    private void store(AttributeRequest request, Entry loaded)
+    {
+        if (loaded.serverError() || (loaded.validators().isEmpty() && _timeToLiveNanos == 0))
+        {
+            _cache.invalidate(request);
+        }
+        else
+        {
+            // Attributes that were not modified are stored again, as they were just revalidated
+            _cache.put(request, new CachedEntry(loaded, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Attributes, with the validators of the response they were read from.
+     *
+     * @param attributes the attributes
+     * @param validators the validators, which are empty if the response can't be revalidated
+     * @param serverError true if the JSON service failed to respond with attributes
+     */
+    record Entry(AttributeTableView attributes, ResponseValidators validators, boolean serverError)
+    {
+        Entry(AttributeTableView attributes, ResponseValidators validators)
+        {
+            this(attributes, validators, false);
+        }
+    }
+
+    private record CachedEntry(Entry entry, long storedAt)
+    {
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.CircuitBreakerConfiguration;
+import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.http.HttpResponse;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Guards the requests that a data access provider makes to the JSON service, with a circuit breaker per operation
+ * and a limit of concurrent requests, if they are configured. Requests that only read a single document may also be
+ * hedged, in which case each of the requests is guarded. If deadlines are configured, they bound the time of all
+ * requests of an operation, including hedged requests and retries.
+ */
+final class BackendGuard
+{
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final @Nullable CircuitBreakerConfiguration _circuitBreakerConfiguration;
+    private final Map<BackendOperation, CircuitBreaker> _circuitBreakers = new ConcurrentHashMap<>();
+    private final LongAdder _rejected = new LongAdder();
+    private final @Nullable ConcurrencyLimiter _concurrencyLimiter;
+    private final @Nullable RequestHedger _requestHedger;
+    private final @Nullable OperationDeadlines _deadlines;
+
+    BackendGuard(JsonDataAccessProviderConfiguration configuration)
+    {
+        _circuitBreakerConfiguration = configuration.circuitBreaker().orElse(null);
+        _concurrencyLimiter = configuration.concurrencyLimit().map(ConcurrencyLimiter::new).orElse(null);
+        _requestHedger = configuration.hedging().map(RequestHedger::new).orElse(null);
+        _deadlines = configuration.deadlines().map(OperationDeadlines::new).orElse(null);
+    }
+
+    /**
+     * Make the request of the operation, unless requests of the operation are currently rejected, or too many
+     * requests are currently made.
+     *
+     * @throws BackendUnavailableException if the request is rejected
+     * @throws DeadlineExceededException if the request did not complete within the deadline of the operation
+     */
+    HttpResponse send(BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        if (_deadlines != null)
+        {
+            return _deadlines.send(operation, () -> hedgedSend(operation, request));
+        }
+
+        return hedgedSend(operation, request);
+    }
+
+    private HttpResponse hedgedSend(BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        if (_requestHedger != null && operation.isHedgeable())
+        {
+            return _requestHedger.send(operation, () -> guardedSend(operation, request));
+        }
+
+        return guardedSend(operation, request);
+    }
+
+    private HttpResponse guardedSend(BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        @Nullable CircuitBreaker circuitBreaker = _circuitBreakerConfiguration != null
+                ? _circuitBreakers.computeIfAbsent(operation,
+                        key -> new CircuitBreaker(key.name(), _circuitBreakerConfiguration))
+                : null;
+
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission())
+        {
+            _rejected.increment();
+            throw new BackendUnavailableException("Requests of " + operation + " to the JSON service are " +
+                    "currently not sent, because too many of them failed");
+        }
+
+        if (_concurrencyLimiter != null && !_concurrencyLimiter.tryAcquire())
+        {
+            if (circuitBreaker != null)
+            {
+                circuitBreaker.releasePermission();
+            }
+
+            throw new BackendUnavailableException("Request of " + operation + " to the JSON service is not sent, " +
+                    "because the limit of concurrent requests is reached");
+        }
+
+        long startedAt = System.nanoTime();
+        @Nullable HttpResponse response = null;
+        boolean abandoned = false;
+
+        try
+        {
+            response = request.get();
+        }
+        catch (RuntimeException e)
+        {
+            abandoned = isAbandoned(e);
+            throw e;
+        }
+        finally
+        {
+            // A request that was abandoned, because another hedged request won or the deadline passed, says
+            // nothing about the JSON service
+            if (abandoned || Thread.currentThread().isInterrupted())
+            {
+                release(circuitBreaker);
+            }
+            else
+            {
+                record(operation, circuitBreaker, response, System.nanoTime() - startedAt);
+            }
+        }
+
+        return response;
+    }
+
+    private void release(@Nullable CircuitBreaker circuitBreaker)
+    {
+        if (_concurrencyLimiter != null)
+        {
+            _concurrencyLimiter.releaseWithoutOutcome();
+        }
+
+        if (circuitBreaker != null)
+        {
+            circuitBreaker.releasePermission();
+        }
+    }
+
+    private void record(BackendOperation operation, @Nullable CircuitBreaker circuitBreaker,
+                        @Nullable HttpResponse response, long durationNanos)
+    {
+        boolean overloaded = response == null || response.statusCode() >= 500
+                || response.statusCode() == TOO_MANY_REQUESTS;
+
+        if (_concurrencyLimiter != null)
+        {
+            _concurrencyLimiter.release(operation, durationNanos, overloaded);
+        }
+
+        if (circuitBreaker != null)
+        {
+            if (overloaded || durationNanos / 1_000_000 > _circuitBreakerConfiguration.slowCallDuration())
+            {
+                circuitBreaker.recordFailure();
+            }
+            else
+            {
+                circuitBreaker.recordSuccess();
+            }
+        }
+    }
+
+    /**
+     * @return true if the exception was thrown because the thread was interrupted or the request was cancelled
+     */
+    static boolean isAbandoned(Throwable exception)
+    {
+        for (@Nullable Throwable cause = exception; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException || cause instanceof CancellationException)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the state of the circuit breaker of each operation that was requested, or an empty map if none is
+     * configured
+     */
+    Map<String, String> circuitBreakerStates()
+    {
+        Map<String, String> states = new LinkedHashMap<>();
+
+        for (BackendOperation operation : BackendOperation.values())
+        {
+            @Nullable CircuitBreaker circuitBreaker = _circuitBreakers.get(operation);
+
+            if (circuitBreaker != null)
+            {
+                states.put(operation.name(), circuitBreaker.state().name());
+            }
+        }
+
+        return states;
+    }
+
+    long rejectedCount()
+    {
+        return _rejected.sum();
+    }
+
+    long deadlineMissedCount()
+    {
+        return _deadlines != null ? _deadlines.missedCount() : 0;
+    }
+
+    long retriedCount()
+    {
+        return _deadlines != null ? _deadlines.retriedCount() : 0;
+    }
+
+    long hedgedCount()
+    {
+        return _requestHedger != null ? _requestHedger.hedgedCount() : 0;
+    }
+
+    /**
+     * @return the statistics of the limit of concurrent requests, or null if none is configured
+     */
+    @Nullable
+    ConcurrencyLimitStats concurrencyLimitStats()
+    {
+        return _concurrencyLimiter != null ? _concurrencyLimiter.stats() : null;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+/**
+ * The operations for which requests are made to the JSON service. The requests of each operation are guarded
+ * separately, so that an operation that fails does not stop the others.
+ */
+enum BackendOperation
+{
+    VERIFY_PASSWORD(false, false),
+    UPDATE_PASSWORD(false, false),
+    GET_ATTRIBUTES(true, true),
+    CREATE_CLIENT(false, false),
+    GET_CLIENT(true, true),
+    LIST_CLIENTS(true, false),
+    COUNT_CLIENTS(true, false),
+    UPDATE_CLIENT(false, false),
+    DELETE_CLIENT(false, false);
+
+    private final boolean _idempotent;
+    private final boolean _hedgeable;
+
+    BackendOperation(boolean idempotent, boolean hedgeable)
+    {
+        _idempotent = idempotent;
+        _hedgeable = hedgeable;
+    }
+
+    /**
+     * @return true if the requests of the operation only read, so that a request that failed may be sent again
+     */
+    boolean isIdempotent()
+    {
+        return _idempotent;
+    }
+
+    /**
+     * @return true if the requests of the operation only read a single document, so that an identical request may
+     * be sent again while the first one is still in flight
+     */
+    boolean isHedgeable()
+    {
+        return _hedgeable;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+/**
+ * Thrown instead of making a request to the JSON service, when requests of the operation are currently not sent,
+ * because too many of them failed recently or too many requests are in flight, or when the JSON service did not
+ * respond in time.
+ */
+public class BackendUnavailableException extends RuntimeException
+{
+    public BackendUnavailableException(String message)
+    {
+        super(message);
+    }
+}
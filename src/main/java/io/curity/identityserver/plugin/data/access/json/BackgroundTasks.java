@@ -0,0 +1,96 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The executor that runs requests to the JSON service that are made in the background, i.e. not on the thread
+ * of the caller. Every task runs on its own virtual thread, so blocking on the response does not tie up a
+ * platform thread, and the threads do not keep the server from shutting down.
+ */
+final class BackgroundTasks
+{
+    private static final ExecutorService _executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("json-dap-", 0).factory());
+
+    private BackgroundTasks()
+    {
+    }
+
+    static ExecutorService executor()
+    {
+        return _executor;
+    }
+
+    /**
+     * Run the task on its own virtual thread.
+     *
+     * <p>If the returned future is completed before the task finishes, because it was cancelled or timed out with
+     * {@link CompletableFuture#orTimeout}, the task is interrupted, which aborts a request it is waiting for.
+     *
+     * @return the future of the result of the task, which completes with the exception of the task if it throws
+     */
+    static <V> CompletableFuture<V> supply(Supplier<V> task)
+    {
+        return supply(task, value -> { });
+    }
+
+    /**
+     * Like {@link #supply(Supplier)}, but hands a result that the task produced after the returned future was
+     * already completed to the given consumer, so that it can be released.
+     */
+    static <V> CompletableFuture<V> supply(Supplier<V> task, Consumer<? super V> undelivered)
+    {
+        CompletableFuture<V> result = new CompletableFuture<>();
+        AtomicBoolean finished = new AtomicBoolean(false);
+
+        Future<?> running = _executor.submit(() -> {
+            try
+            {
+                V value = task.get();
+                finished.set(true);
+
+                if (!result.complete(value))
+                {
+                    undelivered.accept(value);
+                }
+            }
+            catch (Throwable e)
+            {
+                finished.set(true);
+                result.completeExceptionally(e);
+            }
+        });
+
+        result.whenComplete((value, e) -> {
+            // Only interrupt a task that is still running, not the thread that completes the result
+            if (!finished.get())
+            {
+                running.cancel(true);
+            }
+        });
+
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Runs a lookup for each of many keys in the background, with a bounded number of lookups running at once, and
+ * hands out the results as a stream in the order of the keys.
+ *
+ * <p>The stream is lazy. Lookups are only started ahead of the result that the caller consumes, up to the
+ * parallelism, so a caller that processes the results one by one never holds more than that many results. An
+ * exception of a lookup is thrown when its result is reached, and closing the stream abandons the lookups that are
+ * still running, by interrupting them.
+ */
+final class BulkLookup
+{
+    private BulkLookup()
+    {
+    }
+
+    /**
+     * @param keys the keys to look up
+     * @param parallelism the maximum number of lookups that run at once
+     * @param lookup looks up the result of a key
+     * @return the results, in the order of the keys
+     */
+    static <K, R> Stream<R> stream(Iterator<? extends K> keys, int parallelism, Function<? super K, R> lookup)
+    {
+        if (parallelism < 1)
+        {
+            throw new IllegalArgumentException("The parallelism must be at least 1, but was " + parallelism);
+        }
+
+        Results<K, R> results = new Results<>(keys, parallelism, lookup);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED), false)
+                .onClose(results::abandon);
+    }
+
+    private static final class Results<K, R> implements Iterator<R>
+    {
+        private final Iterator<? extends K> _keys;
+        private final int _parallelism;
+        private final Function<? super K, R> _lookup;
+        private final Deque<CompletableFuture<R>> _running;
+
+        private Results(Iterator<? extends K> keys, int parallelism, Function<? super K, R> lookup)
+        {
+            _keys = keys;
+            _parallelism = parallelism;
+            _lookup = lookup;
+            _running = new ArrayDeque<>(parallelism);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            start();
+
+            return !_running.isEmpty();
+        }
+
+        @Override
+        public R next()
+        {
+            start();
+
+            if (_running.isEmpty())
+            {
+                throw new NoSuchElementException();
+            }
+
+            CompletableFuture<R> next = _running.poll();
+
+            // Start the next lookup before waiting, so that the parallelism is kept while the caller waits
+            start();
+
+            return FutureUtils.join(next);
+        }
+
+        private void start()
+        {
+            while (_running.size() < _parallelism && _keys.hasNext())
+            {
+                K key = _keys.next();
+                _running.add(BackgroundTasks.supply(() -> _lookup.apply(key)));
+            }
+        }
+
+        private void abandon()
+        {
+            // Interrupts the lookups that are still running, which aborts their requests to the JSON service
+            _running.forEach(running -> running.cancel(true));
+            _running.clear();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.CircuitBreakerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A circuit breaker for the requests of one operation.
+ *
+ * <p>While it is closed, requests are made, and their outcome is recorded in a sliding window. When the failure
+ * rate within the window reaches the threshold, it opens, and requests are rejected. After the open duration, it is
+ * half-open, and lets a few trial requests through. If they all succeed, it closes again, and if any of them fails,
+ * it opens again.
+ */
+final class CircuitBreaker
+{
+    private static final Logger _logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String _name;
+    private final CircuitBreakerConfiguration _configuration;
+    private final SlidingWindow _window;
+    private final AtomicReference<Status> _status = new AtomicReference<>(new Status(State.CLOSED, 0));
+    private final AtomicInteger _trialPermits = new AtomicInteger();
+    private final AtomicInteger _trialSuccesses = new AtomicInteger();
+
+    CircuitBreaker(String name, CircuitBreakerConfiguration configuration)
+    {
+        _name = name;
+        _configuration = configuration;
+        _window = new SlidingWindow(configuration.slidingWindow());
+    }
+
+    /**
+     * @return true if a request may be made, false if it should be rejected
+     */
+    boolean tryAcquirePermission()
+    {
+        Status status = _status.get();
+
+        switch (status.state())
+        {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - status.since() < _configuration.openDuration() * 1000L)
+                {
+                    return false;
+                }
+                if (transition(status, State.HALF_OPEN))
+                {
+                    _trialSuccesses.set(0);
+                    _trialPermits.set(_configuration.halfOpenCalls());
+                }
+                return tryAcquirePermission();
+            default:
+                return _trialPermits.getAndUpdate(permits -> Math.max(permits - 1, 0)) > 0;
+        }
+    }
+
+    /**
+     * Give back the permission of a request without recording an outcome, because the request was not made, or was
+     * abandoned before it completed. In the half-open state, this lets another trial request through.
+     */
+    void releasePermission()
+    {
+        if (_status.get().state() == State.HALF_OPEN)
+        {
+            _trialPermits.updateAndGet(permits -> Math.min(permits + 1, _configuration.halfOpenCalls()));
+        }
+    }
+
+    void recordSuccess()
+    {
+        Status status = _status.get();
+
+        if (status.state() == State.HALF_OPEN)
+        {
+            if (_trialSuccesses.incrementAndGet() >= _configuration.halfOpenCalls() && transition(status, State.CLOSED))
+            {
+                _window.reset();
+            }
+        }
+        else
+        {
+            _window.record(false);
+        }
+    }
+
+    void recordFailure()
+    {
+        Status status = _status.get();
+
+        if (status.state() == State.HALF_OPEN)
+        {
+            transition(status, State.OPEN);
+        }
+        else if (status.state() == State.CLOSED)
+        {
+            _window.record(true);
+            SlidingWindow.Counts counts = _window.counts();
+
+            if (counts.calls() >= _configuration.minimumCalls()
+                    && counts.failureRate() >= _configuration.failureRateThreshold())
+            {
+                transition(status, State.OPEN);
+            }
+        }
+    }
+
+    State state()
+    {
+        return _status.get().state();
+    }
+
+    private boolean transition(Status from, State to)
+    {
+        if (!_status.compareAndSet(from, new Status(to, System.currentTimeMillis())))
+        {
+            return false;
+        }
+
+        if (to == State.OPEN)
+        {
+            _logger.warn("Circuit breaker of {} requests to the JSON service changed from {} to {}, " +
+                    "requests are not sent for {} seconds", _name, from.state(), to, _configuration.openDuration());
+        }
+        else
+        {
+            _logger.info("Circuit breaker of {} requests to the JSON service changed from {} to {}",
+                    _name, from.state(), to);
+        }
+
+        return true;
+    }
+
+    private record Status(State state, long since)
+    {
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * An index of the JSON documents of database clients, which answers a {@link LocalClientQuery} without scanning
+ * and sorting all documents.
+ *
+ * <p>Each document is identified by its position in the list it was built from. The index holds a bit set of the
+ * active clients, a bit set of the clients of each tag, and for names and search terms, a sorted list of the
+ * clients of every trigram, i.e. every substring of three characters, that occurs in them. A name or search term
+ * filter first narrows down the clients to those that have all trigrams of the term, and then checks the remaining
+ * clients with the query itself, so that the index matches exactly the same clients as the query does. Each
+ * ordering is sorted once, when it is first used.
+ */
+final class ClientIndex
+{
+    private static final int GRAM_LENGTH = 3;
+    private static final int MAX_ORDERINGS = 16;
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final List<Map<String, Object>> _documents;
+    private final BitSet _active;
+    private final Map<Object, BitSet> _tagPostings = new HashMap<>();
+    private final Map<String, int[]> _nameGrams;
+    private final Map<String, int[]> _searchGrams;
+    private final Map<LocalClientQuery.Ordering, int[]> _orderings = new ConcurrentHashMap<>();
+
+    ClientIndex(List<Map<String, Object>> documents)
+    {
+        _documents = documents;
+        _active = new BitSet(documents.size());
+
+        Map<String, Postings> nameGrams = new HashMap<>();
+        Map<String, Postings> searchGrams = new HashMap<>();
+
+        for (int position = 0; position < documents.size(); position++)
+        {
+            Map<String, Object> document = documents.get(position);
+
+            if (LocalClientQuery.isActive(document))
+            {
+                _active.set(position);
+            }
+
+            Set<String> documentNameGrams = new HashSet<>();
+            Set<String> documentSearchGrams = new HashSet<>();
+
+            addGrams(documentNameGrams, document.get(LocalClientQuery.NAME));
+            documentSearchGrams.addAll(documentNameGrams);
+            addGrams(documentSearchGrams, document.get(LocalClientQuery.CLIENT_ID));
+            addGrams(documentSearchGrams, document.get(LocalClientQuery.DESCRIPTION));
+
+            for (Object tag : LocalClientQuery.tagsOf(document))
+            {
+                _tagPostings.computeIfAbsent(tag, key -> new BitSet()).set(position);
+                addGrams(documentSearchGrams, tag);
+            }
+
+            for (String gram : documentNameGrams)
+            {
+                nameGrams.computeIfAbsent(gram, key -> new Postings()).add(position);
+            }
+
+            for (String gram : documentSearchGrams)
+            {
+                searchGrams.computeIfAbsent(gram, key -> new Postings()).add(position);
+            }
+        }
+
+        _nameGrams = toArrays(nameGrams);
+        _searchGrams = toArrays(searchGrams);
+    }
+
+    Map<String, Object> document(int position)
+    {
+        return _documents.get(position);
+    }
+
+    /**
+     * @return the positions of the documents that match the query
+     */
+    BitSet matching(LocalClientQuery query)
+    {
+        BitSet candidates = new BitSet(_documents.size());
+        candidates.set(0, _documents.size());
+
+        if (query.activeClientsOnly())
+        {
+            candidates.and(_active);
+        }
+
+        @Nullable Set<String> tags = query.tags();
+
+        if (tags != null)
+        {
+            BitSet tagged = new BitSet(_documents.size());
+
+            for (String tag : tags)
+            {
+                @Nullable BitSet tagPostings = _tagPostings.get(tag);
+
+                if (tagPostings != null)
+                {
+                    tagged.or(tagPostings);
+                }
+            }
+
+            candidates.and(tagged);
+        }
+
+        if (query.nameFilter() == null && query.searchTerms() == null)
+        {
+            return candidates;
+        }
+
+        narrow(candidates, _nameGrams, query.nameFilter());
+        narrow(candidates, _searchGrams, query.searchTerms());
+
+        // Having all trigrams of a term does not mean that the term occurs, so the candidates are checked
+        for (int position = candidates.nextSetBit(0); position >= 0; position = candidates.nextSetBit(position + 1))
+        {
+            if (!query.matches(_documents.get(position)))
+            {
+                candidates.clear(position);
+            }
+        }
+
+        return candidates;
+    }
+
+    /**
+     * @return the positions of all documents, in the given order
+     */
+    int[] ordering(LocalClientQuery.Ordering ordering)
+    {
+        @Nullable int[] positions = _orderings.get(ordering);
+
+        if (positions == null)
+        {
+            Comparator<Map<String, Object>> comparator = ordering.comparator();
+            positions = IntStream.range(0, _documents.size())
+                    .boxed()
+                    .sorted((first, second) -> comparator.compare(_documents.get(first), _documents.get(second)))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            // The fields to sort by come from the request, so only a limited number of orderings are kept
+            if (_orderings.size() < MAX_ORDERINGS)
+            {
+                _orderings.put(ordering, positions);
+            }
+        }
+
+        return positions;
+    }
+
+    private static void narrow(BitSet candidates, Map<String, int[]> grams, @Nullable String term)
+    {
+        if (term == null || term.length() < GRAM_LENGTH)
+        {
+            return;
+        }
+
+        Set<String> termGrams = new HashSet<>();
+        addGrams(termGrams, term);
+
+        // Start with the trigram with the fewest clients, so that the candidates shrink as fast as possible
+        List<int[]> postings = new ArrayList<>(termGrams.size());
+
+        for (String gram : termGrams)
+        {
+            postings.add(grams.getOrDefault(gram, NO_POSITIONS));
+        }
+
+        postings.sort(Comparator.comparingInt(positions -> positions.length));
+
+        for (int[] positions : postings)
+        {
+            BitSet withGram = new BitSet(candidates.length());
+
+            for (int position : positions)
+            {
+                withGram.set(position);
+            }
+
+            candidates.and(withGram);
+
+            if (candidates.isEmpty())
+            {
+                return;
+            }
+        }
+    }
+
+    private static void addGrams(Set<String> grams, @Nullable Object value)
+    {
+        if (value == null)
+        {
+            return;
+        }
+
+        String text = value.toString().toLowerCase(Locale.ROOT);
+
+        for (int i = 0; i + GRAM_LENGTH <= text.length(); i++)
+        {
+            grams.add(text.substring(i, i + GRAM_LENGTH));
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, Postings> postings)
+    {
+        Map<String, int[]> arrays = new HashMap<>(postings.size() * 4 / 3 + 1);
+        postings.forEach((gram, positions) -> arrays.put(gram, positions.toArray()));
+        return arrays;
+    }
+
+    /**
+     * A growing list of positions, which are added in ascending order.
+     */
+    private static final class Postings
+    {
+        private int[] _positions = new int[4];
+        private int _size = 0;
+
+        private void add(int position)
+        {
+            if (_size == _positions.length)
+            {
+                _positions = Arrays.copyOf(_positions, _size * 2);
+            }
+
+            _positions[_size++] = position;
+        }
+
+        private int[] toArray()
+        {
+            return Arrays.copyOf(_positions, _size);
+        }
+    }
+}
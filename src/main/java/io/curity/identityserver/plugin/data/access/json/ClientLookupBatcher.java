@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Combines lookups of database clients by id into batches, which are requested from the JSON service with one
+ * request.
+ *
+ * <p>The first lookup of a profile opens a batch and waits until the batch is full or the maximum wait has passed.
+ * Lookups of the same profile that arrive in the meantime join the batch. The first lookup then closes the batch,
+ * requests all of its clients at once and hands each of the waiting lookups its client.
+ */
+final class ClientLookupBatcher
+{
+    private static final Logger _logger = LoggerFactory.getLogger(ClientLookupBatcher.class);
+
+    private final long _maxWaitMillis;
+    private final int _maxBatchSize;
+    private final BiFunction<String, Set<String>, Map<String, DatabaseClientAttributes>> _bulkLoader;
+    private final Map<String, Batch> _openBatches = new ConcurrentHashMap<>();
+
+    /**
+     * @param configuration the configuration of the batching
+     * @param bulkLoader requests the clients with the given ids of the given profile, and returns them by their
+     *                   id. Clients that were not found are left out.
+     */
+    ClientLookupBatcher(DatabaseClientConfiguration.LookupBatching configuration,
+                        BiFunction<String, Set<String>, Map<String, DatabaseClientAttributes>> bulkLoader)
+    {
+        _maxWaitMillis = configuration.maxWait();
+        _maxBatchSize = configuration.maxBatchSize();
+        _bulkLoader = bulkLoader;
+    }
+
+    /**
+     * @return the client, or null if it was not found
+     */
+    @Nullable
+    DatabaseClientAttributes get(String profileId, String clientId)
+    {
+        Batch batch;
+        boolean opened;
+        CompletableFuture<DatabaseClientAttributes> lookup;
+
+        do
+        {
+            Batch newBatch = new Batch();
+            @Nullable Batch openBatch = _openBatches.putIfAbsent(profileId, newBatch);
+
+            opened = openBatch == null;
+            batch = opened ? newBatch : openBatch;
+            lookup = batch.add(clientId);
+
+            if (lookup == null)
+            {
+                // The batch was closed in the meantime
+                _openBatches.remove(profileId, batch);
+            }
+        }
+        while (lookup == null);
+
+        if (opened)
+        {
+            batch.awaitFull(_maxWaitMillis);
+            _openBatches.remove(profileId, batch);
+            request(profileId, batch.close());
+        }
+
+        return FutureUtils.join(lookup);
+    }
+
+    private void request(String profileId, Map<String, CompletableFuture<DatabaseClientAttributes>> lookups)
+    {
+        _logger.debug("Requesting batch of {} database clients for profileId: {}", lookups.size(), profileId);
+
+        try
+        {
+            Map<String, DatabaseClientAttributes> clients = _bulkLoader.apply(profileId, lookups.keySet());
+            lookups.forEach((clientId, lookup) -> lookup.complete(clients.get(clientId)));
+        }
+        catch (Throwable e)
+        {
+            // Also an Error, so that no waiting lookup is left incomplete. The lookups rethrow it when joined.
+            lookups.values().forEach(lookup -> lookup.completeExceptionally(e));
+        }
+    }
+
+    private final class Batch
+    {
+        private final Map<String, CompletableFuture<DatabaseClientAttributes>> _lookups = new LinkedHashMap<>();
+        private final CountDownLatch _full = new CountDownLatch(1);
+        private boolean _closed = false;
+
+        /**
+         * @return the lookup of the client in this batch, or null if the batch is closed
+         */
+        private synchronized @Nullable CompletableFuture<DatabaseClientAttributes> add(String clientId)
+        {
+            if (_closed)
+            {
+                return null;
+            }
+
+            CompletableFuture<DatabaseClientAttributes> lookup =
+                    _lookups.computeIfAbsent(clientId, id -> new CompletableFuture<>());
+
+            if (_lookups.size() >= _maxBatchSize)
+            {
+                _closed = true;
+                _full.countDown();
+            }
+
+            return lookup;
+        }
+
+        private void awaitFull(long maxWaitMillis)
+        {
+            try
+            {
+                _full.await(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized Map<String, CompletableFuture<DatabaseClientAttributes>> close()
+        {
+            _closed = true;
+            return _lookups;
+        }
+    }
+}
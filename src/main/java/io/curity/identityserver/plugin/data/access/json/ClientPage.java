@@ -0,0 +1,32 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.List;
+
+/**
+ * A page of database clients, and the cursor of the page that follows it.
+ *
+ * @param clients the clients of the page, or the part of them that was read
+ * @param <T> the type the clients were read as
+ * @param nextCursor the cursor to request the next page with, or null if this is the last page
+ */
+record ClientPage<T>(List<T> clients, @Nullable String nextCursor)
+{
+}
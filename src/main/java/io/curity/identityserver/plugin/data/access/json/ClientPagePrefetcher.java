@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Requests the page that follows a page of database clients in the background, so that it is already available
+ * when the caller pages forward.
+ */
+final class ClientPagePrefetcher
+{
+    private static final Logger _logger = LoggerFactory.getLogger(ClientPagePrefetcher.class);
+
+    private final Cache<PageKey, CompletableFuture<ClientPage<DatabaseClientAttributes>>> _prefetchedPages =
+            CacheBuilder.newBuilder()
+                    .maximumSize(100)
+                    .expireAfterWrite(Duration.ofSeconds(30))
+                    .build();
+
+    /**
+     * Get a page, using the prefetched page if there is one for the same request.
+     *
+     * @param profileId the profile of the clients
+     * @param queryParams the query parameters of the request for the page
+     * @param loader requests the page from the JSON service
+     * @return the page
+     */
+    ClientPage<DatabaseClientAttributes> get(String profileId, Map<String, Collection<String>> queryParams,
+                                             Function<Map<String, Collection<String>>, ClientPage<DatabaseClientAttributes>> loader)
+    {
+        @Nullable CompletableFuture<ClientPage<DatabaseClientAttributes>> prefetched = _prefetchedPages.asMap()
+                .remove(new PageKey(profileId, queryParams));
+
+        ClientPage<DatabaseClientAttributes> page = null;
+
+        if (prefetched != null)
+        {
+            try
+            {
+                page = prefetched.join();
+                _logger.debug("Using prefetched page of database clients for profileId: {}", profileId);
+            }
+            catch (CompletionException e)
+            {
+                _logger.debug("Prefetching the page of database clients failed, requesting it again", e.getCause());
+            }
+        }
+
+        if (page == null)
+        {
+            page = loader.apply(queryParams);
+        }
+
+        if (page.nextCursor() != null)
+        {
+            prefetch(profileId, queryParams, page.nextCursor(), loader);
+        }
+
+        return page;
+    }
+
+    void invalidateAll()
+    {
+        _prefetchedPages.invalidateAll();
+    }
+
+    private void prefetch(String profileId, Map<String, Collection<String>> queryParams, String nextCursor,
+                          Function<Map<String, Collection<String>>, ClientPage<DatabaseClientAttributes>> loader)
+    {
+        Map<String, Collection<String>> nextQueryParams = new HashMap<>(queryParams);
+        nextQueryParams.put("cursor", Collections.singletonList(nextCursor));
+
+        _prefetchedPages.asMap().computeIfAbsent(new PageKey(profileId, nextQueryParams), key ->
+                CompletableFuture.supplyAsync(() -> loader.apply(nextQueryParams), BackgroundTasks.executor()));
+    }
+
+    private record PageKey(String profileId, Map<String, Collection<String>> queryParams)
+    {
+    }
+}
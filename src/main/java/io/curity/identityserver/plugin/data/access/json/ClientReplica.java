@@ -0,0 +1,436 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes;
+import se.curity.identityserver.sdk.datasource.pagination.PaginationRequest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A replica in memory of all database clients of each profile, so that clients can be read, listed and counted
+ * without a request to the JSON service.
+ *
+ * <p>The replica of a profile is loaded in the background from the list of all clients. After that, it is kept
+ * up to date by listing the clients that changed since the previous update, and it is reloaded completely at a
+ * longer interval, to also drop clients that were deleted outside of this data source. Until the replica of a
+ * profile is loaded, or if the profile has more clients than the replica may hold, it can't answer anything about
+ * the clients of that profile. The same goes for a replica that could not be updated for longer than the maximum
+ * staleness.
+ *
+ * <p>Clients that are written through this data source are kept apart from the listed clients of a snapshot, so that
+ * a write does not copy all clients of the profile. They are merged with the listed clients, and indexed, when the
+ * clients are first listed or counted, or when too many writes are kept apart. The cursors of the pages that the
+ * replica returns have a prefix, so that they are not mistaken for cursors of the JSON service.
+ */
+final class ClientReplica
+{
+    private static final Logger _logger = LoggerFactory.getLogger(ClientReplica.class);
+
+    // Changes are listed from a bit before the previous update, so that clients that were stamped by a server with
+    // a slightly different clock are not missed. Applying a change twice does no harm.
+    private static final Duration CLOCK_SKEW = Duration.ofSeconds(5);
+    private static final String DELETED = "deleted";
+    private static final String CURSOR_PREFIX = "replica:";
+    private static final int MAX_WRITES_KEPT_APART = 256;
+
+    private final DatabaseClientConfiguration.ClientReplica _configuration;
+    private final ClientLister _clientLister;
+    private final Map<String, ProfileReplica> _profileReplicas = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    interface ClientLister
+    {
+        /**
+         * List the JSON documents of the clients of the profile to the consumer, following the cursors of the pages.
+         *
+         * @param changedSince if not null, only list the clients that were changed since then
+         */
+        void list(String profileId, @Nullable Instant changedSince, Consumer<Map<String, Object>> clientConsumer);
+    }
+
+    /**
+     * @param configuration the configuration of the replica
+     * @param clientLister lists the clients of a profile
+     */
+    ClientReplica(DatabaseClientConfiguration.ClientReplica configuration, ClientLister clientLister)
+    {
+        _configuration = configuration;
+        _clientLister = clientLister;
+    }
+
+    /**
+     * @return the clients of the profile, or null if the replica of the profile is not loaded
+     */
+    @Nullable
+    Snapshot clients(String profileId)
+    {
+        ProfileReplica profileReplica = _profileReplicas.computeIfAbsent(profileId, ProfileReplica::new);
+        profileReplica.updateIfStale();
+
+        return profileReplica.snapshotWithinMaxStaleness();
+    }
+
+    /**
+     * Record a client that was created or updated through this data source.
+     */
+    void recordWritten(String profileId, Map<String, Object> document)
+    {
+        @Nullable ProfileReplica profileReplica = _profileReplicas.get(profileId);
+
+        if (profileReplica != null && document.get(LocalClientQuery.CLIENT_ID) instanceof String)
+        {
+            profileReplica.write(Write.of(document));
+        }
+    }
+
+    /**
+     * Record a client that was deleted through this data source.
+     */
+    void recordDeleted(String profileId, String clientId)
+    {
+        @Nullable ProfileReplica profileReplica = _profileReplicas.get(profileId);
+
+        if (profileReplica != null)
+        {
+            profileReplica.write(new Write(clientId, null));
+        }
+    }
+
+    /**
+     * The clients of a profile at one point in time. The clients are indexed when they are first listed or counted.
+     */
+    static final class Snapshot
+    {
+        private final Map<String, ReplicatedClient> _listed;
+        // The clients that were written since the listed clients were taken, by their id, null if deleted
+        private final Map<String, ReplicatedClient> _written;
+        private final Supplier<Map<String, ReplicatedClient>> _clients;
+        private final Supplier<IndexedClients> _indexedClients;
+
+        private Snapshot(Map<String, ReplicatedClient> listed, Map<String, ReplicatedClient> written)
+        {
+            _listed = Collections.unmodifiableMap(listed);
+            _written = written;
+            _clients = Suppliers.memoize(this::merged);
+            _indexedClients = Suppliers.memoize(() -> IndexedClients.of(_clients.get().values()));
+        }
+
+        @Nullable
+        DatabaseClientAttributes get(String clientId)
+        {
+            @Nullable ReplicatedClient client = _written.containsKey(clientId)
+                    ? _written.get(clientId)
+                    : _listed.get(clientId);
+
+            return client != null ? client.attributes() : null;
+        }
+
+        /**
+         * @return the page of the matching clients, or null if the cursor of the pagination request is not one
+         * that was returned from this method
+         */
+        @Nullable
+        ClientPage<DatabaseClientAttributes> query(LocalClientQuery query, @Nullable PaginationRequest paginationRequest)
+        {
+            int offset = 0;
+
+            if (paginationRequest != null && paginationRequest.getCursor() != null)
+            {
+                if (!paginationRequest.getCursor().startsWith(CURSOR_PREFIX))
+                {
+                    return null;
+                }
+
+                try
+                {
+                    offset = Integer.parseInt(paginationRequest.getCursor().substring(CURSOR_PREFIX.length()));
+                }
+                catch (NumberFormatException e)
+                {
+                    return null;
+                }
+
+                if (offset < 0)
+                {
+                    return null;
+                }
+            }
+
+            IndexedClients indexedClients = _indexedClients.get();
+            BitSet matching = indexedClients.index().matching(query);
+            int total = matching.cardinality();
+            int count = paginationRequest != null && paginationRequest.getCount() > 0
+                    ? paginationRequest.getCount() : total;
+            int end = (int) Math.min((long) offset + count, total);
+            List<DatabaseClientAttributes> page = new ArrayList<>(Math.max(end - offset, 0));
+            int skipped = 0;
+
+            for (int position : indexedClients.index().ordering(query.ordering()))
+            {
+                if (page.size() >= end - offset)
+                {
+                    break;
+                }
+
+                if (matching.get(position) && skipped++ >= offset)
+                {
+                    page.add(indexedClients.clients().get(position).attributes());
+                }
+            }
+
+            return new ClientPage<>(page, end < total ? CURSOR_PREFIX + end : null);
+        }
+
+        long count(LocalClientQuery query)
+        {
+            return _indexedClients.get().index().matching(query).cardinality();
+        }
+
+        private Snapshot with(Write write)
+        {
+            if (_written.size() >= MAX_WRITES_KEPT_APART)
+            {
+                Map<String, ReplicatedClient> clients = new HashMap<>(_clients.get());
+                write.applyTo(clients);
+
+                return new Snapshot(clients, Map.of());
+            }
+
+            Map<String, ReplicatedClient> written = new HashMap<>(_written);
+            written.put(write.clientId(), write.client());
+
+            return new Snapshot(_listed, written);
+        }
+
+        private Map<String, ReplicatedClient> merged()
+        {
+            if (_written.isEmpty())
+            {
+                return _listed;
+            }
+
+            Map<String, ReplicatedClient> clients = new HashMap<>(_listed);
+            _written.forEach((clientId, client) -> new Write(clientId, client).applyTo(clients));
+
+            return clients;
+        }
+    }
+
+    /**
+     * A client that was created, updated or, if the client is null, deleted.
+     */
+    private record Write(String clientId, @Nullable ReplicatedClient client)
+    {
+        private static Write of(Map<String, Object> document)
+        {
+            String clientId = (String) document.get(LocalClientQuery.CLIENT_ID);
+
+            return new Write(clientId, Boolean.TRUE.equals(document.get(DELETED))
+                    ? null
+                    : new ReplicatedClient(DatabaseClientAttributes.from(document), document));
+        }
+
+        private void applyTo(Map<String, ReplicatedClient> clients)
+        {
+            if (client == null)
+            {
+                clients.remove(clientId);
+            }
+            else
+            {
+                clients.put(clientId, client);
+            }
+        }
+    }
+
+    /**
+     * The clients of a snapshot, by their position in the index.
+     */
+    private record IndexedClients(List<ReplicatedClient> clients, ClientIndex index)
+    {
+        private static IndexedClients of(Collection<ReplicatedClient> replicatedClients)
+        {
+            List<ReplicatedClient> clients = List.copyOf(replicatedClients);
+            List<Map<String, Object>> documents = clients.stream().map(ReplicatedClient::document).toList();
+
+            return new IndexedClients(clients, new ClientIndex(documents));
+        }
+    }
+
+    private record ReplicatedClient(DatabaseClientAttributes attributes, Map<String, Object> document)
+    {
+    }
+
+    private final class ProfileReplica
+    {
+        private final String _profileId;
+        private final AtomicBoolean _updating = new AtomicBoolean(false);
+        private volatile @Nullable Snapshot _snapshot;
+        private volatile long _nextUpdateAt;
+        private volatile long _updatedAt;
+        private long _nextReloadAt;
+        private @Nullable Instant _updatedSince;
+        // The writes that are made while an update is running, which are applied again to the updated clients
+        private @Nullable List<Write> _writesDuringUpdate;
+
+        private ProfileReplica(String profileId)
+        {
+            _profileId = profileId;
+        }
+
+        /**
+         * @return the snapshot, or null if it could not be updated for longer than the maximum staleness
+         */
+        @Nullable
+        private Snapshot snapshotWithinMaxStaleness()
+        {
+            @Nullable Snapshot snapshot = _snapshot;
+            long maxStalenessMillis = _configuration.maxStaleness() * 1000L;
+
+            if (snapshot != null && maxStalenessMillis > 0
+                    && System.currentTimeMillis() - _updatedAt > maxStalenessMillis)
+            {
+                _logger.debug("The replica of database clients for profileId: {} is too stale to be used", _profileId);
+
+                return null;
+            }
+
+            return snapshot;
+        }
+
+        private void updateIfStale()
+        {
+            if (System.currentTimeMillis() >= _nextUpdateAt && _updating.compareAndSet(false, true))
+            {
+                _nextUpdateAt = System.currentTimeMillis() + _configuration.refreshInterval() * 1000L;
+                BackgroundTasks.executor().execute(this::update);
+            }
+        }
+
+        private void update()
+        {
+            boolean reload = _snapshot == null || System.currentTimeMillis() >= _nextReloadAt;
+            Instant startedAt = Instant.now().minus(CLOCK_SKEW);
+
+            synchronized (this)
+            {
+                _writesDuringUpdate = new ArrayList<>();
+            }
+
+            try
+            {
+                Map<String, ReplicatedClient> clients;
+
+                if (reload)
+                {
+                    clients = new HashMap<>();
+                    _clientLister.list(_profileId, null, document -> {
+                        Write.of(document).applyTo(clients);
+
+                        if (clients.size() > _configuration.maxClients())
+                        {
+                            throw new TooManyClientsException();
+                        }
+                    });
+                }
+                else
+                {
+                    clients = new HashMap<>(_snapshot._clients.get());
+                    _clientLister.list(_profileId, _updatedSince, document -> Write.of(document).applyTo(clients));
+                }
+
+                synchronized (this)
+                {
+                    _writesDuringUpdate.forEach(write -> write.applyTo(clients));
+                    _snapshot = new Snapshot(clients, Map.of());
+                }
+
+                _updatedSince = startedAt;
+                _updatedAt = System.currentTimeMillis();
+
+                if (reload)
+                {
+                    _nextReloadAt = System.currentTimeMillis() + _configuration.reloadInterval() * 1000L;
+                }
+
+                _logger.debug("Updated replica of database clients for profileId: {}, {} clients", _profileId,
+                        clients.size());
+            }
+            catch (TooManyClientsException e)
+            {
+                _logger.info("The profileId: {} has more than {} database clients, which will not be kept in " +
+                        "memory", _profileId, _configuration.maxClients());
+                _snapshot = null;
+                _nextUpdateAt = System.currentTimeMillis() + _configuration.reloadInterval() * 1000L;
+            }
+            catch (RuntimeException e)
+            {
+                _logger.warn("Could not update the replica of database clients for profileId: {}", _profileId, e);
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    _writesDuringUpdate = null;
+                }
+
+                _updating.set(false);
+            }
+        }
+
+        private synchronized void write(Write write)
+        {
+            @Nullable Snapshot snapshot = _snapshot;
+
+            if (snapshot != null)
+            {
+                _snapshot = snapshot.with(write);
+            }
+
+            if (_writesDuringUpdate != null)
+            {
+                _writesDuringUpdate.add(write);
+            }
+        }
+    }
+
+    private static final class TooManyClientsException extends RuntimeException
+    {
+        private TooManyClientsException()
+        {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -15,6 +15,7 @@ import se.curity.identityserver.sdk.Nullable;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import static java.util.Collections.singletonList;
@@ -32,6 +33,36 @@ final class CollectionUtils
                 .collect(toMap(Map.Entry::getKey, (entry) -> singletonList(entry.getValue())));
     }
 
+    /**
+     * @param pairs names and values, one after the other, as a request plan writes them
+     */
+    static Map<String, Collection<String>> toMultiMap(String[] pairs)
+    {
+        Map<String, Collection<String>> result = new HashMap<>(pairs.length * 2 / 3 + 1);
+
+        for (int i = 0; i < pairs.length; i += 2)
+        {
+            result.put(pairs[i], singletonList(pairs[i + 1]));
+        }
+
+        return result;
+    }
+
+    /**
+     * @param pairs names and values, one after the other, as a request plan writes them
+     */
+    static Map<String, String> toSimpleMap(String[] pairs)
+    {
+        Map<String, String> result = new HashMap<>(pairs.length * 2 / 3 + 1);
+
+        for (int i = 0; i < pairs.length; i += 2)
+        {
+            result.put(pairs[i], pairs[i + 1]);
+        }
+
+        return result;
+    }
+
     static String[] toArray(Map<String, String> map)
     {
         String[] result = new String[map.size() * 2];
@@ -0,0 +1,27 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+/**
+ * Statistics of the limit of concurrent requests to the JSON service.
+ *
+ * @param limit the current limit
+ * @param inflight the number of requests that are currently made
+ * @param rejected the number of requests that failed, because the limit was reached
+ */
+public record ConcurrencyLimitStats(int limit, int inflight, long rejected)
+{
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.ConcurrencyLimitConfiguration;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent requests, with a limit that adapts to the latency of the requests, by additive
+ * increase and multiplicative decrease.
+ *
+ * <p>The latency of each request is compared to the lowest latency seen recently for the same operation, so that
+ * e.g. listing all clients is not compared to reading a single one. While requests are about as fast as that, and the limit is being used, the limit grows by about one per limit of completed requests. When a request
+ * is much slower or fails, the JSON service is taken to be overloaded, and the limit shrinks by a tenth. The limit
+ * shrinks at most once per round trip: requests that were already in flight when it shrank saw the same overload, and
+ * don't shrink it again. The lowest latency is forgotten regularly, so that it follows the JSON service when it gets
+ * slower for good.
+ */
+final class ConcurrencyLimiter
+{
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final int LATENCY_FLOOR_SAMPLES = 1000;
+
+    private final ConcurrencyLimitConfiguration _configuration;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _released = _lock.newCondition();
+    private final LongAdder _rejected = new LongAdder();
+
+    // Guarded by _lock
+    private double _limit;
+    private int _inflight = 0;
+    // The lowest recent latency, and the number of samples since it was last forgotten, by operation
+    private final long[] _latencyFloorNanos = new long[BackendOperation.values().length];
+    private final int[] _samples = new int[BackendOperation.values().length];
+    private boolean _decreased = false;
+    private long _lastDecreaseNanos;
+
+    ConcurrencyLimiter(ConcurrencyLimitConfiguration configuration)
+    {
+        _configuration = configuration;
+        _limit = configuration.initialLimit();
+        Arrays.fill(_latencyFloorNanos, Long.MAX_VALUE);
+    }
+
+    /**
+     * Wait until a request may be made, for at most the maximum wait.
+     *
+     * @return true if the request may be made, and {@link #release} needs to be called when it completed
+     */
+    boolean tryAcquire()
+    {
+        _lock.lock();
+
+        try
+        {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(_configuration.maxWait());
+
+            while (_inflight >= (int) _limit)
+            {
+                if (remainingNanos <= 0)
+                {
+                    _rejected.increment();
+                    return false;
+                }
+
+                remainingNanos = _released.awaitNanos(remainingNanos);
+            }
+
+            _inflight++;
+
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            _rejected.increment();
+
+            return false;
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request that completed, and adapt the limit to its outcome.
+     *
+     * @param operation the operation of the request
+     * @param latencyNanos how long the request took
+     * @param overloaded true if the request failed in a way that indicates that the JSON service is overloaded
+     */
+    void release(BackendOperation operation, long latencyNanos, boolean overloaded)
+    {
+        _lock.lock();
+
+        try
+        {
+            // The requests that were in flight when this one completed, including itself
+            int inflight = _inflight--;
+
+            int index = operation.ordinal();
+
+            if (++_samples[index] >= LATENCY_FLOOR_SAMPLES)
+            {
+                _samples[index] = 0;
+                _latencyFloorNanos[index] = Long.MAX_VALUE;
+            }
+
+            _latencyFloorNanos[index] = Math.min(_latencyFloorNanos[index], latencyNanos);
+
+            if (overloaded || latencyNanos * 100 > _latencyFloorNanos[index] * _configuration.latencyTolerance())
+            {
+                long now = System.nanoTime();
+
+                if (!_decreased || now - latencyNanos - _lastDecreaseNanos > 0)
+                {
+                    _limit = Math.max(_configuration.minLimit(), _limit * BACKOFF_RATIO);
+                    _decreased = true;
+                    _lastDecreaseNanos = now;
+                }
+            }
+            else if (inflight * 2 >= (int) _limit)
+            {
+                // The limit is only increased while it is being used, so that it does not grow without bound
+                _limit = Math.min(_configuration.maxLimit(), _limit + 1 / _limit);
+            }
+
+            _released.signal();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Release a request without adapting the limit, because its outcome says nothing about the JSON service, e.g.
+     * because it was abandoned before it completed.
+     */
+    void releaseWithoutOutcome()
+    {
+        _lock.lock();
+
+        try
+        {
+            _inflight--;
+            _released.signal();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    ConcurrencyLimitStats stats()
+    {
+        _lock.lock();
+
+        try
+        {
+            return new ConcurrencyLimitStats((int) _limit, _inflight, _rejected.sum());
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+}
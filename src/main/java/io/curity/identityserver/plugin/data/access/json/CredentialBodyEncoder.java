@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes the username and password of a credential request as a JSON object or as form data, directly into a byte
+ * array of the exact size, instead of building a map, serializing it to a String and encoding that again.
+ *
+ * <p>The parameter names are escaped once, when the encoder is created. The password is only ever written into the
+ * returned array, which the caller should {@link #wipe} when the request was sent, so that fewer copies of the
+ * password are left in memory.
+ */
+final class CredentialBodyEncoder
+{
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] _jsonUsernamePrefix;
+    private final byte[] _jsonPasswordPrefix;
+    private final byte[] _formUsernamePrefix;
+    private final byte[] _formPasswordPrefix;
+
+    CredentialBodyEncoder(String usernameParameter, String passwordParameter)
+    {
+        _jsonUsernamePrefix = concat("{\"", jsonEscaped(usernameParameter), "\":\"");
+        _jsonPasswordPrefix = concat("\",\"", jsonEscaped(passwordParameter), "\":\"");
+        _formUsernamePrefix = concat("", formEncoded(usernameParameter), "=");
+        _formPasswordPrefix = concat("&", formEncoded(passwordParameter), "=");
+    }
+
+    /**
+     * @return the UTF-8 encoded JSON object with the username and, if not null, the password
+     */
+    byte[] json(String username, @Nullable String password)
+    {
+        int length = _jsonUsernamePrefix.length + writeJson(username, null, 0) + 2;
+
+        if (password != null)
+        {
+            length += _jsonPasswordPrefix.length + writeJson(password, null, 0);
+        }
+
+        byte[] body = new byte[length];
+        int position = put(_jsonUsernamePrefix, body, 0);
+        position = writeJson(username, body, position);
+
+        if (password != null)
+        {
+            position = put(_jsonPasswordPrefix, body, position);
+            position = writeJson(password, body, position);
+        }
+
+        body[position++] = '"';
+        body[position] = '}';
+
+        return body;
+    }
+
+    /**
+     * @return the form data with the username and, if not null, the password, which is plain ASCII
+     */
+    byte[] form(String username, @Nullable String password)
+    {
+        int length = _formUsernamePrefix.length + writeForm(username, null, 0);
+
+        if (password != null)
+        {
+            length += _formPasswordPrefix.length + writeForm(password, null, 0);
+        }
+
+        byte[] body = new byte[length];
+        int position = put(_formUsernamePrefix, body, 0);
+        position = writeForm(username, body, position);
+
+        if (password != null)
+        {
+            position = put(_formPasswordPrefix, body, position);
+            writeForm(password, body, position);
+        }
+
+        return body;
+    }
+
+    static void wipe(byte[] body)
+    {
+        Arrays.fill(body, (byte) 0);
+    }
+
+    /**
+     * Write the value as the content of a JSON string in UTF-8, or only count its bytes if the target is null.
+     *
+     * @return the position after the value, or the number of bytes if the target is null
+     */
+    private static int writeJson(String value, @Nullable byte[] target, int position)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\')
+            {
+                position = write(target, position, '\\');
+                position = write(target, position, c);
+            }
+            else if (c < 0x20)
+            {
+                position = write(target, position, '\\');
+                position = write(target, position, 'u');
+                position = write(target, position, '0');
+                position = write(target, position, '0');
+                position = write(target, position, HEX[c >> 4]);
+                position = write(target, position, HEX[c & 0xF]);
+            }
+            else if (c < 0x80)
+            {
+                position = write(target, position, c);
+            }
+            else
+            {
+                int codePoint = codePointAt(value, i);
+                position = writeUtf8(codePoint, target, position, false);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Write the value form-encoded, like {@link java.net.URLEncoder} does with UTF-8, or only count its bytes if the
+     * target is null.
+     *
+     * @return the position after the value, or the number of bytes if the target is null
+     */
+    private static int writeForm(String value, @Nullable byte[] target, int position)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-' || c == '*' || c == '_')
+            {
+                position = write(target, position, c);
+            }
+            else if (c == ' ')
+            {
+                position = write(target, position, '+');
+            }
+            else
+            {
+                int codePoint = codePointAt(value, i);
+                position = writeUtf8(codePoint, target, position, true);
+                i += Character.charCount(codePoint) - 1;
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * @return the code point at the index, or '?' for a surrogate that is not part of a pair, which is how
+     * {@link String#getBytes} encodes it
+     */
+    private static int codePointAt(String value, int index)
+    {
+        int codePoint = value.codePointAt(index);
+
+        return Character.isSurrogate((char) codePoint) ? '?' : codePoint;
+    }
+
+    private static int writeUtf8(int codePoint, @Nullable byte[] target, int position, boolean percentEncoded)
+    {
+        if (codePoint < 0x80)
+        {
+            return writeByte(codePoint, target, position, percentEncoded);
+        }
+
+        if (codePoint < 0x800)
+        {
+            position = writeByte(0xC0 | (codePoint >> 6), target, position, percentEncoded);
+        }
+        else if (codePoint < 0x10000)
+        {
+            position = writeByte(0xE0 | (codePoint >> 12), target, position, percentEncoded);
+            position = writeByte(0x80 | ((codePoint >> 6) & 0x3F), target, position, percentEncoded);
+        }
+        else
+        {
+            position = writeByte(0xF0 | (codePoint >> 18), target, position, percentEncoded);
+            position = writeByte(0x80 | ((codePoint >> 12) & 0x3F), target, position, percentEncoded);
+            position = writeByte(0x80 | ((codePoint >> 6) & 0x3F), target, position, percentEncoded);
+        }
+
+        return writeByte(0x80 | (codePoint & 0x3F), target, position, percentEncoded);
+    }
+
+    private static int writeByte(int value, @Nullable byte[] target, int position, boolean percentEncoded)
+    {
+        if (!percentEncoded)
+        {
+            return write(target, position, value);
+        }
+
+        position = write(target, position, '%');
+        position = write(target, position, HEX[(value >> 4) & 0xF]);
+        return write(target, position, HEX[value & 0xF]);
+    }
+
+    private static int write(@Nullable byte[] target, int position, int value)
+    {
+        if (target != null)
+        {
+            target[position] = (byte) value;
+        }
+
+        return position + 1;
+    }
+
+    private static int put(byte[] bytes, byte[] target, int position)
+    {
+        System.arraycopy(bytes, 0, target, position, bytes.length);
+
+        return position + bytes.length;
+    }
+
+    private static byte[] jsonEscaped(String value)
+    {
+        byte[] escaped = new byte[writeJson(value, null, 0)];
+        writeJson(value, escaped, 0);
+
+        return escaped;
+    }
+
+    private static byte[] formEncoded(String value)
+    {
+        byte[] encoded = new byte[writeForm(value, null, 0)];
+        writeForm(value, encoded, 0);
+
+        return encoded;
+    }
+
+    private static byte[] concat(String prefix, byte[] value, String suffix)
+    {
+        byte[] bytes = new byte[prefix.length() + value.length + suffix.length()];
+        int position = put(prefix.getBytes(StandardCharsets.US_ASCII), bytes, 0);
+        position = put(value, bytes, position);
+        put(suffix.getBytes(StandardCharsets.US_ASCII), bytes, position);
+
+        return bytes;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of database clients, keyed on the profile and the client id.
+ *
+ * <p>Clients are served from the cache for their time to live. After that, they are kept for the revalidation
+ * period, during which the loader is given the expired entry, so that it can make a conditional request and
+ * reuse the client if it was not modified. A client that was loaded while it was invalidated, e.g. because it was
+ * updated or deleted, is not cached, since it may have been loaded in its old state.
+ */
+final class DatabaseClientCache
+{
+    private final Cache<ClientKey, Entry> _cache;
+    private final long _timeToLiveMillis;
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final SubjectGenerations _generations = new SubjectGenerations();
+
+    DatabaseClientCache(DatabaseClientConfiguration.ClientCache configuration)
+    {
+        _timeToLiveMillis = configuration.timeToLive() * 1000L;
+        _cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maxEntries())
+                .expireAfterWrite(Duration.ofSeconds(configuration.timeToLive() + configuration.revalidationPeriod()))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the client from the cache, or load it using the given loader if it is not cached or has expired. Clients
+     * that could not be found are not cached.
+     *
+     * @param loader loads the client, given the expired entry of the client or null, and returns null if the
+     *               client was not found
+     */
+    @Nullable
+    DatabaseClientAttributes get(String profileId, String clientId, Function<Entry, Entry> loader)
+    {
+        ClientKey key = new ClientKey(profileId, clientId);
+        @Nullable Entry entry = _cache.asMap().get(key);
+
+        if (entry != null && entry.isFresh(_timeToLiveMillis))
+        {
+            _hits.increment();
+            return entry.client();
+        }
+
+        _misses.increment();
+        long generation = _generations.current(key.subject());
+        entry = loader.apply(entry);
+
+        if (entry != null)
+        {
+            put(key, entry, generation);
+            return entry.client();
+        }
+
+        _cache.invalidate(key);
+        return null;
+    }
+
+    private void put(ClientKey key, Entry entry, long generation)
+    {
+        if (!_generations.isCurrent(key.subject(), generation))
+        {
+            return;
+        }
+
+        _cache.put(key, entry);
+
+        // An invalidation may have run between the check and the put, and then missed the new entry
+        if (!_generations.isCurrent(key.subject(), generation))
+        {
+            _cache.asMap().remove(key, entry);
+        }
+    }
+
+    void invalidate(String profileId, @Nullable String clientId)
+    {
+        if (clientId != null)
+        {
+            ClientKey key = new ClientKey(profileId, clientId);
+            _generations.advance(key.subject());
+            _cache.invalidate(key);
+        }
+    }
+
+    CacheStats stats()
+    {
+        CacheStats cacheStats = _cache.stats();
+
+        return new CacheStats(_hits.sum(), _misses.sum(), cacheStats.loadSuccessCount(),
+                cacheStats.loadExceptionCount(), cacheStats.totalLoadTime(), cacheStats.evictionCount());
+    }
+
+    /**
+     * A cached client, with the validators of the response it was read from.
+     */
+    record Entry(DatabaseClientAttributes client, ResponseValidators validators, long storedAt)
+    {
+        Entry(DatabaseClientAttributes client, ResponseValidators validators)
+        {
+            this(client, validators, System.currentTimeMillis());
+        }
+
+        /**
+         * @return a copy of this entry, stored now, for when the JSON service reported it was not modified
+         */
+        Entry revalidated()
+        {
+            return new Entry(client, validators);
+        }
+
+        private boolean isFresh(long timeToLiveMillis)
+        {
+            return System.currentTimeMillis() - storedAt < timeToLiveMillis;
+        }
+    }
+
+    private record ClientKey(String profileId, String clientId)
+    {
+        private String subject()
+        {
+            return profileId + "/" + clientId;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+final class FutureUtils
+{
+    private FutureUtils()
+    {
+    }
+
+    /**
+     * Wait for the result of the future, rethrowing the exception it completed with as it was thrown.
+     */
+    static <V> V join(CompletableFuture<V> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            throw unwrap(e);
+        }
+    }
+
+    static RuntimeException unwrap(CompletionException e)
+    {
+        if (e.getCause() instanceof RuntimeException runtimeException)
+        {
+            return runtimeException;
+        }
+
+        if (e.getCause() instanceof Error error)
+        {
+            throw error;
+        }
+
+        return e;
+    }
+}
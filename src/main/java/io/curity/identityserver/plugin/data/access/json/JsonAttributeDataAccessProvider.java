@@ -18,11 +18,7 @@ package io.curity.identityserver.plugin.data.access.json;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration;
-import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration.ProvideSubject.Parameter;
 import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration;
-import io.curity.identityserver.plugin.data.access.json.parameter.AttributeLookupMapping;
-import io.curity.identityserver.plugin.data.access.json.parameter.ParameterMapping;
-import io.curity.identityserver.plugin.data.access.json.parameter.StaticMapping;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import se.curity.identityserver.sdk.Nullable;
@@ -32,40 +28,56 @@ import se.curity.identityserver.sdk.attribute.AttributeTableView;
 import se.curity.identityserver.sdk.attribute.Attributes;
 import se.curity.identityserver.sdk.attribute.SubjectAttributes;
 import se.curity.identityserver.sdk.datasource.AttributeDataAccessProvider;
+import se.curity.identityserver.sdk.http.HttpRequest;
 import se.curity.identityserver.sdk.http.HttpResponse;
-import se.curity.identityserver.sdk.service.Json;
 import se.curity.identityserver.sdk.service.WebServiceClient;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.io.UncheckedIOException;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
-import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.toArray;
 import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.toMultiMap;
+import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.toSimpleMap;
 import static se.curity.identityserver.sdk.http.HttpResponse.asString;
 
 public class JsonAttributeDataAccessProvider implements AttributeDataAccessProvider, ThreadSafe
 {
-    private static final String SUBJECT_PLACEHOLDER = ":subject";
+    private static final int TOO_MANY_REQUESTS = 429;
 
     private static final Logger _logger = LoggerFactory.getLogger(JsonAttributeDataAccessProvider.class);
 
-    private final AttributesConfiguration _configuration;
+    private final AttributeRequestPlan _requestPlan;
+    private final @Nullable JsonPointer _responsePointer;
+    private final int _bulkLookupParallelism;
     private final WebServiceClient _webServiceClient;
-    private final Json _json;
+    private final @Nullable AttributeResponseCache _attributeCache;
+    private final @Nullable VerifiedAttributesStore _verifiedAttributesStore;
+    private final BackendGuard _backendGuard;
+    private final SingleFlight<ConditionalAttributeRequest, AttributeResponseCache.Entry> _attributeRequests =
+            new SingleFlight<>();
+
+    @VisibleForTesting
+    JsonAttributeDataAccessProvider(JsonDataAccessProviderConfiguration configuration)
+    {
+        this(configuration, new VerifiedAttributesStore(configuration));
+    }
 
     @SuppressWarnings("unused") // used through DI
-    public JsonAttributeDataAccessProvider(JsonDataAccessProviderConfiguration configuration)
+    public JsonAttributeDataAccessProvider(JsonDataAccessProviderConfiguration configuration,
+                                           VerifiedAttributesStore verifiedAttributesStore)
     {
-        _configuration = configuration.getAttributesConfiguration();
-        _json = configuration.json();
+        AttributesConfiguration attributesConfiguration = configuration.getAttributesConfiguration();
+        _requestPlan = new AttributeRequestPlan(attributesConfiguration);
+        _responsePointer = attributesConfiguration.responsePointer().map(JsonPointer::parse).orElse(null);
+        _bulkLookupParallelism = attributesConfiguration.bulkLookupParallelism();
         _webServiceClient = configuration.webServiceClient();
+        _backendGuard = new BackendGuard(configuration);
+        _attributeCache = attributesConfiguration.attributeCache().map(AttributeResponseCache::new).orElse(null);
+        _verifiedAttributesStore = verifiedAttributesStore.isEnabled() ? verifiedAttributesStore : null;
 
         _logger.trace("Instantiating Json Attributes data-source plugin with ID={}", configuration.id());
     }
@@ -80,173 +92,272 @@ public class JsonAttributeDataAccessProvider implements AttributeDataAccessProvi
     @Override
     public AttributeTableView getAttributes(SubjectAttributes subjectAttributes)
     {
-        AttributeTableView result = AttributeTableView.empty();
-
-        String requestPath = createRequestPath(subjectAttributes.getSubject());
-        Map<String, String> queryParameters = createQueryParameters(subjectAttributes);
-        Map<String, String> headerParameters = createHeaderParameters(subjectAttributes);
+        if (_verifiedAttributesStore != null)
+        {
+            @Nullable Attributes verified = _verifiedAttributesStore.take(subjectAttributes.getSubject());
 
-        HttpResponse response = _webServiceClient
-                .withQueries(toMultiMap(queryParameters))
-                .withPath(requestPath)
-                .request()
-                .header(toArray(headerParameters))
-                .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
-                .method("GET")
-                .response();
+            if (verified != null)
+            {
+                _logger.debug("Using the attributes of {} that were returned when its password was verified",
+                        subjectAttributes.getSubject());
+                Map<String, Object> row = verified.asMap();
+                @Nullable Set<String> projectedAttributes = _requestPlan.projectedAttributes();
+
+                if (projectedAttributes != null)
+                {
+                    row = new LinkedHashMap<>(row);
+                    row.keySet().retainAll(projectedAttributes);
+                }
+
+                return AttributeTableView.of(Collections.singletonList(row));
+            }
+        }
 
-        @Nullable Attributes attributes = getAttributesFrom(response);
+        AttributeRequest request = new AttributeRequest(createRequestPath(subjectAttributes.getSubject()),
+                _requestPlan.queryParameters(subjectAttributes), _requestPlan.headerParameters(subjectAttributes));
 
-        if (attributes != null)
+        if (_attributeCache != null)
         {
-            result = AttributeTableView.of(Collections.singletonList(attributes.asMap()));
+            return _attributeCache.get(request, this::requestAttributes);
         }
 
-        return result;
+        return requestAttributes(request, null).attributes();
+    }
 
+    /**
+     * Like {@link #getAttributes(SubjectAttributes)}, but runs on a virtual thread instead of blocking the caller,
+     * so that lookups can be made concurrently with other work. Cancelling the future, or timing it out, interrupts
+     * the request to the JSON service.
+     */
+    public CompletableFuture<AttributeTableView> getAttributesAsync(SubjectAttributes subjectAttributes)
+    {
+        return BackgroundTasks.supply(() -> getAttributes(subjectAttributes));
     }
 
-    @VisibleForTesting
-    @Nullable
-    Attributes getAttributesFrom(HttpResponse jsonResponse)
+    /**
+     * Like {@link #getAttributes(String)}, but runs on a virtual thread instead of blocking the caller.
+     */
+    public CompletableFuture<AttributeTableView> getAttributesAsync(String subject)
     {
-        @Nullable Attributes responseAttributes = null;
+        return BackgroundTasks.supply(() -> getAttributes(subject));
+    }
 
-        String responseBody = jsonResponse.body(asString());
+    /**
+     * Look up the attributes of many subjects, such as for a batch job, with at most the configured bulk lookup
+     * parallelism of requests to the JSON service running at once. Each subject is looked up like it is by
+     * {@link #getAttributes(SubjectAttributes)}, so cached attributes are used.
+     *
+     * <p>The lookups are made while the stream is consumed, so the results don't need to be held in memory at once.
+     * If the lookup of a subject fails, its exception is thrown when its result is reached. Close the stream to
+     * abandon the lookups that are running when not all results are consumed.
+     *
+     * @param subjects the subjects to look up the attributes of
+     * @return the attributes of each subject, in the order of the subjects
+     */
+    public Stream<AttributeTableView> getBulkAttributes(Iterable<SubjectAttributes> subjects)
+    {
+        return BulkLookup.stream(subjects.iterator(), _bulkLookupParallelism, this::getAttributes);
+    }
 
-        if (!WebUtils.isSuccessfulJsonResponse(jsonResponse))
+    /**
+     * Request the attributes from the JSON service. If a cached entry is given, the request is made conditional
+     * on its validators, and the cached attributes are reused if they were not modified.
+     */
+    private AttributeResponseCache.Entry requestAttributes(AttributeRequest request,
+                                                           @Nullable AttributeResponseCache.Entry cached)
+    {
+        ResponseValidators validators = cached != null ? cached.validators() : ResponseValidators.NONE;
+
+        // Concurrent lookups that result in the same request share it
+        return _attributeRequests.execute(new ConditionalAttributeRequest(request, validators),
+                () -> sendAttributeRequest(request, cached));
+    }
+
+    private AttributeResponseCache.Entry sendAttributeRequest(AttributeRequest request,
+                                                              @Nullable AttributeResponseCache.Entry cached)
+    {
+        HttpRequest.Builder requestBuilder = _webServiceClient
+                .withQueries(toMultiMap(request.queryParameters()))
+                .withPath(request.path())
+                .request()
+                .header(request.headerParameters())
+                .accept(JsonClientRequestContentType.APPLICATION_JSON.toString());
+
+        if (cached != null)
         {
-            // Debug level logging, as the response is not reporting OK/success
-            if (!responseBody.isEmpty())
-            {
-                _logger.debug("Response from JSON data-source:\n{}", responseBody);
-            }
-            else
-            {
-                _logger.debug("No response body from JSON data-source.");
-            }
+            requestBuilder.header(cached.validators().asConditionalHeaders());
         }
-        else if (responseBody.isEmpty())
+
+        HttpResponse response = _backendGuard.send(BackendOperation.GET_ATTRIBUTES,
+                () -> requestBuilder.method("GET").response());
+
+        if (cached != null && response.statusCode() == ResponseValidators.NOT_MODIFIED)
         {
-            _logger.warn("Received JSON response without response body. The JSON server answer is inconsistent?");
+            _logger.trace("Attributes at {} were not modified", request.path());
+            return cached;
         }
-        else
-        {
-            _logger.trace("Processing JSON response from successful response");
 
-            try
-            {
-                responseAttributes = Attributes.fromMap(_json.fromJson(responseBody), AttributeName.Format.JSON);
-            }
-            catch (Json.JsonException e)
-            {
-                _logger.warn("Could not parse JSON response from server due to '{}': {}", e.getMessage(), responseBody);
-            }
+        @Nullable Attributes attributes = getAttributesFrom(response);
+
+        if (attributes == null)
+        {
+            return new AttributeResponseCache.Entry(AttributeTableView.empty(), ResponseValidators.NONE,
+                    response.statusCode() >= 500 || response.statusCode() == TOO_MANY_REQUESTS);
         }
 
-        return responseAttributes;
+        return new AttributeResponseCache.Entry(AttributeTableView.of(Collections.singletonList(attributes.asMap())),
+                ResponseValidators.of(response));
     }
 
-    @VisibleForTesting
-    String createRequestPath(String subject)
+    /**
+     * The number of attribute lookups that shared the request of a concurrent, identical lookup, instead of making
+     * their own request.
+     */
+    public long getCoalescedRequestCount()
     {
-        return _configuration.provideSubject().urlPath()
-                // if the choice is to use a urlPath, use it by replacing :subject with the subject value
-                .map(path -> path.replaceAll(SUBJECT_PLACEHOLDER, WebUtils.urlEncode(subject)))
-                // if the choice is to use a parameter to provide the subject, use the urlPath as-is.
-                .orElseGet(() -> _configuration.provideSubject().parameter()
-                        .map(Parameter::urlPath)
-                        .orElseThrow(() -> new IllegalStateException("One-of was not set to any value")));
+        return _attributeRequests.coalescedCount();
     }
 
-    @VisibleForTesting
-    Map<String, String> createQueryParameters(SubjectAttributes subjectAttributes)
+    /**
+     * Statistics of the cache of attributes.
+     *
+     * @return the statistics, or null if the cache is not configured
+     */
+    public @Nullable AttributeCacheStats getAttributeCacheStats()
     {
-        return createParameters(subjectAttributes, Parameter.ProvideAs.QUERY_PARAMETER);
+        return _attributeCache != null ? _attributeCache.stats() : null;
     }
 
-    @VisibleForTesting
-    Map<String, String> createHeaderParameters(SubjectAttributes subjectAttributes)
+    /**
+     * The number of attribute lookups that used the attributes that were returned when the password of the subject
+     * was verified, instead of making a request.
+     */
+    public long getReusedVerifiedAttributesCount()
     {
-        return createParameters(subjectAttributes, Parameter.ProvideAs.HEADER_PARAMETER);
+        return _verifiedAttributesStore != null ? _verifiedAttributesStore.reusedCount() : 0;
     }
 
-    private Map<String, String> createParameters(SubjectAttributes subjectAttributes, Parameter.ProvideAs provideAs)
+    /**
+     * The state of the circuit breaker of each operation, e.g. CLOSED, OPEN or HALF_OPEN.
+     *
+     * @return the states by operation, or an empty map if no circuit breaker is configured
+     */
+    public Map<String, String> getCircuitBreakerStates()
     {
-        if (!_configuration.provideSubject().parameter().isPresent())
-        {
-            // not configured to use parameters
-            return Collections.emptyMap();
-        }
+        return _backendGuard.circuitBreakerStates();
+    }
 
-        Parameter parameterConfig = _configuration.provideSubject().parameter().get();
+    /**
+     * The number of requests that were not sent to the JSON service, because their circuit breaker was open.
+     */
+    public long getRejectedRequestCount()
+    {
+        return _backendGuard.rejectedCount();
+    }
 
-        if (!parameterConfig.provideAs().equals(provideAs))
-        {
-            // not configured to use requested parameter type
-            return Collections.emptyMap();
-        }
+    /**
+     * Statistics of the limit of concurrent requests to the JSON service.
+     *
+     * @return the statistics, or null if the limit is not configured
+     */
+    public @Nullable ConcurrencyLimitStats getConcurrencyLimitStats()
+    {
+        return _backendGuard.concurrencyLimitStats();
+    }
 
-        Map<String, String> result = new HashMap<>();
+    /**
+     * The number of requests to the JSON service that did not complete within the deadline of their operation. These
+     * are not counted as rejected requests.
+     */
+    public long getDeadlineMissedCount()
+    {
+        return _backendGuard.deadlineMissedCount();
+    }
 
-        String subject = subjectAttributes.getSubject();
-        String encodedSubject = encodeFunctionFor(provideAs).apply(subject);
-        result.put(parameterConfig.usernameParameter(), encodedSubject);
+    /**
+     * The number of requests to the JSON service that were sent again, because they failed.
+     */
+    public long getRetriedRequestCount()
+    {
+        return _backendGuard.retriedCount();
+    }
 
-        List<ParameterMapping> mappings = _configuration.parameterMappings().parameterMapping().stream()
-                .map(JsonAttributeDataAccessProvider::parameterMapping)
-                .collect(Collectors.toList());
+    /**
+     * The number of requests to the JSON service that were sent a second time, because the first one was slow.
+     */
+    public long getHedgedRequestCount()
+    {
+        return _backendGuard.hedgedCount();
+    }
 
-        for (ParameterMapping mapping : mappings)
+    @VisibleForTesting
+    @Nullable
+    Attributes getAttributesFrom(HttpResponse jsonResponse)
+    {
+        if (!WebUtils.isSuccessfulJsonResponse(jsonResponse))
         {
-            @Nullable String mappedValue = mapping.getMappedValue(subjectAttributes);
+            String responseBody = jsonResponse.body(asString());
 
-            if (mappedValue != null)
+            // Debug level logging, as the response is not reporting OK/success
+            if (!responseBody.isEmpty())
             {
-                result.put(mapping.getParameterName(), encodeFunctionFor(provideAs).apply(mappedValue));
+                _logger.debug("Response from JSON data-source:\n{}", responseBody);
             }
+            else
+            {
+                _logger.debug("No response body from JSON data-source.");
+            }
+
+            return null;
         }
 
-        return result;
-    }
+        _logger.trace("Processing JSON response from successful response");
 
-    private static Function<String, String> encodeFunctionFor(Parameter.ProvideAs provideAs)
-    {
-        switch (provideAs)
+        // The body is decoded while it is received, straight into the map that the attributes are made from, and
+        // the envelope around the attributes and the attributes that are not projected are skipped
+        @Nullable Map<String, Object> document;
+
+        try
         {
-            case HEADER_PARAMETER:
-                return (String value) -> Base64.getEncoder().encodeToString(value.getBytes(StandardCharsets.UTF_8));
-            case QUERY_PARAMETER:
-                // Possible URL-encoding is not the JSON DAP's, but the WebServiceClient's responsibility
-                return Function.identity();
-            default:
-                throw new IllegalArgumentException("Unknown ProvideAs instance: " + provideAs);
+            document = WebUtils.readJsonObjectBody(jsonResponse, _responsePointer,
+                    _requestPlan.projectedAttributes());
         }
-    }
+        catch (UncheckedIOException e)
+        {
+            _logger.warn("Could not parse JSON response from server due to '{}'", e.getCause().getMessage());
 
-    private static ParameterMapping parameterMapping(AttributesConfiguration.ParameterMappingConfiguration mappingConfig)
-    {
-        Optional<AttributesConfiguration.ParameterMappingConfiguration.Value> optionalValue = mappingConfig.value();
+            return null;
+        }
 
-        if (!optionalValue.isPresent())
+        if (document == null)
         {
-            // use the value of the attribute unchanged
-            return new AttributeLookupMapping(mappingConfig.parameterName(), mappingConfig.parameterName());
+            _logger.warn("Received JSON response without response body. The JSON server answer is inconsistent?");
+
+            return null;
         }
 
-        AttributesConfiguration.ParameterMappingConfiguration.Value value = optionalValue.get();
+        return Attributes.fromMap(document, AttributeName.Format.JSON);
+    }
 
-        if (value.useValueOfAttribute().isPresent())
-        {
-            return new AttributeLookupMapping(mappingConfig.parameterName(),
-                    value.useValueOfAttribute().get());
-        }
+    @VisibleForTesting
+    String createRequestPath(String subject)
+    {
+        return _requestPlan.path(subject);
+    }
 
-        if (value.staticValue().isPresent())
-        {
-            return new StaticMapping(mappingConfig.parameterName(), value.staticValue().get());
-        }
+    @VisibleForTesting
+    Map<String, String> createQueryParameters(SubjectAttributes subjectAttributes)
+    {
+        return toSimpleMap(_requestPlan.queryParameters(subjectAttributes));
+    }
 
-        throw new IllegalStateException("One-of ParameterMappingConfiguration did not have any value set");
+    @VisibleForTesting
+    Map<String, String> createHeaderParameters(SubjectAttributes subjectAttributes)
+    {
+        return toSimpleMap(_requestPlan.headerParameters(subjectAttributes));
+    }
+
+    private record ConditionalAttributeRequest(AttributeRequest request, ResponseValidators validators)
+    {
     }
 }
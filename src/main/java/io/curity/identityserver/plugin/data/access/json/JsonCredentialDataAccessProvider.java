@@ -34,35 +34,59 @@ import se.curity.identityserver.sdk.datasource.CredentialDataAccessProvider;
 import se.curity.identityserver.sdk.errors.CredentialManagerException;
 import se.curity.identityserver.sdk.http.HttpRequest;
 import se.curity.identityserver.sdk.http.HttpResponse;
-import se.curity.identityserver.sdk.service.Json;
 import se.curity.identityserver.sdk.service.WebServiceClient;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.toMultiMap;
 import static io.curity.identityserver.plugin.data.access.json.WebUtils.isSuccessfulJsonResponse;
 import static io.curity.identityserver.plugin.data.access.json.WebUtils.urlEncode;
-import static io.curity.identityserver.plugin.data.access.json.WebUtils.urlEncodedFormData;
 import static se.curity.identityserver.sdk.alarm.AlarmType.EXTERNAL_SERVICE_FAILED_AUTHENTICATION;
 
 public class JsonCredentialDataAccessProvider implements CredentialDataAccessProvider, ThreadSafe
 {
     private static final String SUBJECT_PLACEHOLDER = ":subject";
     private static final String PASSWORD_PLACEHOLDER = ":password";
+    private static final String ERROR_FIELD = "error";
     private static final Logger _logger = LoggerFactory.getLogger(JsonCredentialDataAccessProvider.class);
 
     private final CredentialAccessConfiguration _configuration;
-    private final Json _json;
     private final WebServiceClient _webServiceClient;
+    private final @Nullable VerifiedCredentialCache _verifiedCredentialCache;
+    private final @Nullable AccountRecordCache _accountRecordCache;
+    private final @Nullable VerifiedAttributesStore _verifiedAttributesStore;
+    private final BackendGuard _backendGuard;
+    private final CredentialBodyEncoder _bodyEncoder;
+    private final @Nullable JsonPointer _responsePointer;
+
+    @VisibleForTesting
+    JsonCredentialDataAccessProvider(JsonDataAccessProviderConfiguration configuration)
+    {
+        this(configuration, new VerifiedAttributesStore(configuration));
+    }
 
     @SuppressWarnings("unused") // used through DI
-    public JsonCredentialDataAccessProvider(JsonDataAccessProviderConfiguration configuration)
+    public JsonCredentialDataAccessProvider(JsonDataAccessProviderConfiguration configuration,
+                                            VerifiedAttributesStore verifiedAttributesStore)
     {
         _configuration = configuration.getCredentialAccessConfiguration();
-        _json = configuration.json();
         _webServiceClient = configuration.webServiceClient();
+        _backendGuard = new BackendGuard(configuration);
+        _bodyEncoder = new CredentialBodyEncoder(_configuration.usernameParameter(), _configuration.passwordParameter());
+        _responsePointer = _configuration.responsePointer().map(JsonPointer::parse).orElse(null);
+        _verifiedCredentialCache = _configuration.backendVerifiesPassword()
+                ? _configuration.verifiedCredentialCache().map(VerifiedCredentialCache::new).orElse(null)
+                : null;
+        // The record of a user can only be reused for other passwords if the request does not contain the password
+        _accountRecordCache = !_configuration.backendVerifiesPassword()
+                && !_configuration.urlPath().contains(PASSWORD_PLACEHOLDER)
+                ? _configuration.accountRecordCache().map(AccountRecordCache::new).orElse(null)
+                : null;
+        _verifiedAttributesStore = verifiedAttributesStore.isEnabled() ? verifiedAttributesStore : null;
     }
 
     @Override
@@ -78,17 +102,31 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
         }
 
         String requestPath = createRequestPath(subjectId, newPassword.get());
-        Map<String, String> requestParameterMap = createRequestParameterMap(subjectId, newPassword.get());
-
-        // updatePassword must use HTTP PUT.
-        HttpResponse jsonResponse = _webServiceClient
-                .withPath(requestPath)
-                .request()
-                .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
-                .contentType(JsonClientRequestContentType.APPLICATION_JSON.toString())
-                .body(HttpRequest.fromString(_json.toJson(requestParameterMap), StandardCharsets.UTF_8))
-                .method("PUT")
-                .response();
+        byte[] requestBody = _bodyEncoder.json(subjectId, newPassword.get());
+        HttpResponse jsonResponse;
+        // Verifications of the old password and the record of the account are forgotten before the request, and
+        // again after it, also if it fails, since the JSON service may have changed the password even if no
+        // response was received
+        invalidateCachedCredentials(subjectId);
+
+        try
+        {
+            // updatePassword must use HTTP PUT.
+            jsonResponse = _backendGuard.send(BackendOperation.UPDATE_PASSWORD, () -> _webServiceClient
+                    .withPath(requestPath)
+                    .request()
+                    .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
+                    .contentType(JsonClientRequestContentType.APPLICATION_JSON.toString())
+                    .body(HttpRequest.fromByteArray(requestBody))
+                    .method("PUT")
+                    .response());
+        }
+        finally
+        {
+            // Requests that change a password are sent on this thread, so no attempt is still sending the body
+            CredentialBodyEncoder.wipe(requestBody);
+            invalidateCachedCredentials(subjectId);
+        }
 
         if (isSuccessfulJsonResponse(jsonResponse))
         {
@@ -112,32 +150,131 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
         }
     }
 
+    private void invalidateCachedCredentials(String subjectId)
+    {
+        if (_verifiedCredentialCache != null)
+        {
+            _verifiedCredentialCache.invalidate(subjectId);
+        }
+
+        if (_accountRecordCache != null)
+        {
+            _accountRecordCache.invalidate(subjectId);
+        }
+
+        if (_verifiedAttributesStore != null)
+        {
+            _verifiedAttributesStore.invalidate(subjectId);
+        }
+    }
+
     @Override
     @Nullable
     public AuthenticationAttributes verifyPassword(String userName, String password)
     {
-        String requestPath = createRequestPath(userName, password);
-        Map<String, String> requestParameterMap;
-
-        if (_configuration.backendVerifiesPassword())
+        if (_verifiedCredentialCache != null)
         {
-            requestParameterMap = createRequestParameterMap(userName, password);
+            @Nullable AuthenticationAttributes verified = _verifiedCredentialCache.get(userName, password);
+
+            if (verified != null)
+            {
+                _logger.debug("The password of {} was verified recently", userName);
+                return recordVerifiedAttributes(userName, verified);
+            }
         }
-        else
+
+        if (_accountRecordCache != null)
         {
-            // Don't send the password when the backend is not doing anything with it
-            requestParameterMap = createRequestParameterMap(userName, null);
+            @Nullable AuthenticationAttributes accountRecord = _accountRecordCache.get(userName);
+
+            if (accountRecord != null)
+            {
+                _logger.debug("The account record of {} was read recently", userName);
+                return recordVerifiedAttributes(userName, accountRecord);
+            }
         }
 
+        String requestPath = createRequestPath(userName, password);
+        // Don't send the password when the backend is not doing anything with it
+        @Nullable String sentPassword = _configuration.backendVerifiesPassword() ? password : null;
+        @Nullable byte[] requestBody = switch (_configuration.submitAs())
+        {
+            case POST_AS_JSON -> _bodyEncoder.json(userName, sentPassword);
+            case POST_AS_URLENCODED_FORMDATA -> _bodyEncoder.form(userName, sentPassword);
+            default -> null;
+        };
+
         WebServiceClient webServiceClient = _webServiceClient.withPath(requestPath);
+        long verifiedGeneration = _verifiedCredentialCache != null ? _verifiedCredentialCache.generation(userName) : 0;
+        long recordGeneration = _accountRecordCache != null ? _accountRecordCache.generation(userName) : 0;
+        HttpResponse jsonResponse;
 
-        HttpRequest request = getHttpRequestToVerifyPassword(requestParameterMap, webServiceClient);
+        try
+        {
+            HttpRequest request = getHttpRequestToVerifyPassword(userName, sentPassword, requestBody,
+                    webServiceClient);
 
-        HttpResponse jsonResponse = request.response();
+            jsonResponse = _backendGuard.send(BackendOperation.VERIFY_PASSWORD, request::response);
+        }
+        finally
+        {
+            if (requestBody != null)
+            {
+                CredentialBodyEncoder.wipe(requestBody);
+            }
+        }
 
         _logger.debug("JSON data-source responds with status: {}", jsonResponse.statusCode());
 
-        return getAuthenticationAttributesFrom(jsonResponse, userName, true);
+        @Nullable AuthenticationAttributes attributes = getAuthenticationAttributesFrom(jsonResponse, userName, true);
+
+        if (attributes != null && _verifiedCredentialCache != null)
+        {
+            _verifiedCredentialCache.recordVerified(userName, password, attributes, verifiedGeneration);
+        }
+
+        if (attributes != null && _accountRecordCache != null)
+        {
+            _accountRecordCache.put(userName, attributes, recordGeneration);
+        }
+
+        return attributes != null ? recordVerifiedAttributes(userName, attributes) : null;
+    }
+
+    /**
+     * Keep the attributes of the subject that is logging in, for the attribute lookup that usually follows.
+     */
+    private AuthenticationAttributes recordVerifiedAttributes(String userName, AuthenticationAttributes attributes)
+    {
+        if (_verifiedAttributesStore != null)
+        {
+            _verifiedAttributesStore.put(userName, attributes.getSubjectAttributes());
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Like {@link #verifyPassword(String, String)}, but runs on a virtual thread instead of blocking the caller, so
+     * that the password can be verified concurrently with other work. Cancelling the future, or timing it out,
+     * interrupts the request to the JSON service.
+     *
+     * @return the future of the authentication attributes, which completes with null if the password was not verified
+     */
+    public CompletableFuture<AuthenticationAttributes> verifyPasswordAsync(String userName, String password)
+    {
+        return BackgroundTasks.supply(() -> verifyPassword(userName, password));
+    }
+
+    /**
+     * Like {@link #updatePassword(AccountAttributes)}, but runs on a virtual thread instead of blocking the caller.
+     */
+    public CompletableFuture<Void> updatePasswordAsync(AccountAttributes account)
+    {
+        return BackgroundTasks.supply(() -> {
+            updatePassword(account);
+            return null;
+        });
     }
 
     @VisibleForTesting
@@ -151,14 +288,10 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
     private AuthenticationAttributes getAuthenticationAttributesFrom(HttpResponse jsonResponse, String userName,
                                                                      boolean throwOnError)
     {
-        @Nullable AuthenticationAttributes attributes = null;
-
-        String responseBody = jsonResponse.body(HttpResponse.asString());
-
-        boolean isHttpSuccessResponse = isSuccessfulJsonResponse(jsonResponse);
-
-        if (!isHttpSuccessResponse)
+        if (!isSuccessfulJsonResponse(jsonResponse))
         {
+            String responseBody = jsonResponse.body(HttpResponse.asString());
+
             // Debug level logging, as the response is not reporting OK/success
             if (responseBody.isEmpty())
             {
@@ -170,37 +303,40 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
 
                 if (throwOnError)
                 {
-                    throw newCredentialManagerException(_json, responseBody);
+                    throw newCredentialManagerException(responseBody);
                 }
             }
+
+            return null;
         }
-        else if (responseBody.isEmpty())
+
+        @Nullable Map<String, Object> document = WebUtils.readJsonObjectBody(jsonResponse, _responsePointer, null);
+
+        if (document == null)
         {
             _logger.warn("Received JSON response without response body. The JSON server answer is inconsistent?");
-        }
-        else
-        {
-            _logger.trace("Processing JSON response from successful response");
 
-            // Let all the returned JSON-attributes be categorized as subject-attributes
-            attributes = AuthenticationAttributes.of(
-                    SubjectAttributes.of(userName, readFromJsonResponse(responseBody)),
-                    ContextAttributes.empty());
+            return null;
         }
 
-        return attributes;
+        _logger.trace("Processing JSON response from successful response");
+
+        // Let all the returned JSON-attributes be categorized as subject-attributes
+        return AuthenticationAttributes.of(
+                SubjectAttributes.of(userName, Attributes.fromMap(document, AttributeName.Format.JSON)),
+                ContextAttributes.empty());
     }
 
-    private static CredentialManagerException newCredentialManagerException(Json json, String responseBody)
+    private static CredentialManagerException newCredentialManagerException(String responseBody)
     {
         String message;
 
         try
         {
-            message = json.fromJson(responseBody).getOrDefault("error",
-                    "No error details available").toString();
+            @Nullable Object error = readErrorField(responseBody);
+            message = error != null ? error.toString() : "No error details available";
         }
-        catch (Json.JsonException e)
+        catch (IOException e)
         {
             _logger.warn("Could not parse JSON response from server due to '{}': {}",
                     e.getMessage(), responseBody);
@@ -211,7 +347,35 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
         return new CredentialManagerException(message);
     }
 
-    private HttpRequest getHttpRequestToVerifyPassword(Map<String, String> requestParameterMap,
+    /**
+     * Read only the top-level error field of the response, skipping over all other fields without materializing them.
+     */
+    @Nullable
+    private static Object readErrorField(String responseBody) throws IOException
+    {
+        try (JsonStreamReader reader = new JsonStreamReader(new StringReader(responseBody)))
+        {
+            reader.beginObject();
+
+            while (reader.hasNext())
+            {
+                if (ERROR_FIELD.equals(reader.nextName()))
+                {
+                    return reader.nextValue();
+                }
+
+                reader.skipValue();
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * @param requestBody the encoded username and password, if they are posted
+     */
+    private HttpRequest getHttpRequestToVerifyPassword(String userName, @Nullable String password,
+                                                       @Nullable byte[] requestBody,
                                                        WebServiceClient webServiceClient)
     {
         switch (_configuration.submitAs())
@@ -221,17 +385,17 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
                         .withoutAlarm(EXTERNAL_SERVICE_FAILED_AUTHENTICATION)
                         .contentType(JsonClientRequestContentType.APPLICATION_JSON.toString())
                         .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
-                        .body(HttpRequest.fromString(_json.toJson(requestParameterMap), StandardCharsets.UTF_8))
+                        .body(HttpRequest.fromByteArray(requestBody))
                         .method("POST");
             case POST_AS_URLENCODED_FORMDATA:
                 return webServiceClient.request()
                         .withoutAlarm(EXTERNAL_SERVICE_FAILED_AUTHENTICATION)
                         .contentType(JsonClientRequestContentType.APPLICATION_WWW_FORM_URLENCODED.toString())
                         .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
-                        .body(HttpRequest.fromString(urlEncodedFormData(requestParameterMap), StandardCharsets.ISO_8859_1))
+                        .body(HttpRequest.fromByteArray(requestBody))
                         .method("POST");
             case GET_AS_QUERYSTRING:
-                return webServiceClient.withQueries(toMultiMap(requestParameterMap)).request()
+                return webServiceClient.withQueries(toMultiMap(createRequestParameterMap(userName, password))).request()
                         .withoutAlarm(EXTERNAL_SERVICE_FAILED_AUTHENTICATION)
                         .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
                         .method("GET");
@@ -240,9 +404,49 @@ public class JsonCredentialDataAccessProvider implements CredentialDataAccessPro
         }
     }
 
-    private Attributes readFromJsonResponse(String responseBody)
+    /**
+     * The state of the circuit breaker of each operation, e.g. CLOSED, OPEN or HALF_OPEN.
+     *
+     * @return the states by operation, or an empty map if no circuit breaker is configured
+     */
+    public Map<String, String> getCircuitBreakerStates()
+    {
+        return _backendGuard.circuitBreakerStates();
+    }
+
+    /**
+     * The number of requests that were not sent to the JSON service, because their circuit breaker was open.
+     */
+    public long getRejectedRequestCount()
+    {
+        return _backendGuard.rejectedCount();
+    }
+
+    /**
+     * Statistics of the limit of concurrent requests to the JSON service.
+     *
+     * @return the statistics, or null if the limit is not configured
+     */
+    public @Nullable ConcurrencyLimitStats getConcurrencyLimitStats()
+    {
+        return _backendGuard.concurrencyLimitStats();
+    }
+
+    /**
+     * The number of requests to the JSON service that did not complete within the deadline of their operation. These
+     * are not counted as rejected requests.
+     */
+    public long getDeadlineMissedCount()
+    {
+        return _backendGuard.deadlineMissedCount();
+    }
+
+    /**
+     * The number of requests to the JSON service that were sent again, because they failed.
+     */
+    public long getRetriedRequestCount()
     {
-        return Attributes.fromMap(_json.fromJson(responseBody), AttributeName.Format.JSON);
+        return _backendGuard.retriedCount();
     }
 
     @Override
@@ -16,6 +16,7 @@
 
 package io.curity.identityserver.plugin.data.access.json;
 
+import com.google.common.cache.CacheStats;
 import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
 import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration;
 import org.slf4j.Logger;
@@ -35,11 +36,22 @@ import se.curity.identityserver.sdk.http.HttpResponse;
 import se.curity.identityserver.sdk.service.Json;
 import se.curity.identityserver.sdk.service.WebServiceClient;
 
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.putIfNotEmpty;
 import static io.curity.identityserver.plugin.data.access.json.CollectionUtils.putIfNotNull;
@@ -51,13 +63,36 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
     private final DatabaseClientConfiguration _configuration;
     private final WebServiceClient _webServiceClient;
     private final Json _json;
+    private final @Nullable DatabaseClientCache _clientCache;
+    private final @Nullable ClientPagePrefetcher _pagePrefetcher;
+    private final @Nullable NotFoundClientCache _notFoundCache;
+    private final @Nullable KnownClientIds _knownClientIds;
+    private final @Nullable ClientLookupBatcher _lookupBatcher;
+    private final @Nullable ClientReplica _clientReplica;
+    private final BackendGuard _backendGuard;
+    private final SingleFlight<ClientRequest, DatabaseClientCache.Entry> _clientRequests = new SingleFlight<>();
+    private final AtomicBoolean _countEndpointUnavailable = new AtomicBoolean(false);
     private static String PROFILE_ID = ":profileId";
+    private static final Pattern NEXT_RELATION = Pattern.compile("rel=\"?([^\"]*\\s)?next([\\s\";]|$)");
 
     public JsonDatabaseClientDataAccessProvider(JsonDataAccessProviderConfiguration configuration)
     {
         _configuration = configuration.getDatabaseClientConfiguration();
         _webServiceClient = configuration.webServiceClient();
         _json = configuration.json();
+        _backendGuard = new BackendGuard(configuration);
+        _clientCache = _configuration.clientCache().map(DatabaseClientCache::new).orElse(null);
+        _pagePrefetcher = _configuration.prefetchNextPage() ? new ClientPagePrefetcher() : null;
+        _notFoundCache = _configuration.notFoundCache().map(NotFoundClientCache::new).orElse(null);
+        _knownClientIds = _configuration.knownClientIdFilter()
+                .map(filterConfiguration -> new KnownClientIds(filterConfiguration, this::listClientIds))
+                .orElse(null);
+        _lookupBatcher = _configuration.lookupBatching()
+                .map(batchingConfiguration -> new ClientLookupBatcher(batchingConfiguration, this::fetchClientsByIds))
+                .orElse(null);
+        _clientReplica = _configuration.clientReplica()
+                .map(replicaConfiguration -> new ClientReplica(replicaConfiguration, this::listClients))
+                .orElse(null);
     }
 
     @Override
@@ -66,19 +101,106 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
         _logger.debug("Creating a new database client with profileId: {} and attributes : {}", profileId, attributes);
         attributes = attributes.withMeta(Meta.of("dbClient", Instant.now(), Instant.now()));
 
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.POST.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), _json.toJson(attributes));
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.CREATE_CLIENT, HttpMethod.POST.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), _json.toJson(attributes));
+        invalidateCachedClients(profileId, attributes.getClientId());
+        recordCreatedClient(profileId, attributes.getClientId());
         String responseBody = httpResponse.body(asString());
 
         _logger.debug("Received new database client JSON response: {}", responseBody);
 
-        return DatabaseClientAttributes.from(_json.fromJson(responseBody));
+        Map<String, Object> databaseClientMap = _json.fromJson(responseBody);
+        recordWrittenClient(profileId, databaseClientMap);
+
+        return DatabaseClientAttributes.from(databaseClientMap);
     }
 
     @Override
     public @Nullable DatabaseClientAttributes getClientById(String clientId, String profileId)
     {
         _logger.debug("Getting database client with Id: {} and profileId: {}", clientId, profileId);
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.GET.getMethodString(), String.join("/", _configuration.urlPath().replace(PROFILE_ID, profileId), clientId), (String) null);
+
+        @Nullable ClientReplica.Snapshot replicatedClients = _clientReplica != null ? _clientReplica.clients(profileId) : null;
+
+        if (replicatedClients != null)
+        {
+            return replicatedClients.get(clientId);
+        }
+
+        if (isKnownToBeAbsent(clientId, profileId))
+        {
+            _logger.debug("Database client with Id: {} and profileId: {} is known to not exist", clientId, profileId);
+            return null;
+        }
+
+        @Nullable DatabaseClientAttributes databaseClient;
+
+        if (_clientCache != null)
+        {
+            databaseClient = _clientCache.get(profileId, clientId, expired -> fetchClientById(clientId, profileId, expired));
+        }
+        else
+        {
+            @Nullable DatabaseClientCache.Entry fetched = fetchClientById(clientId, profileId, null);
+            databaseClient = fetched != null ? fetched.client() : null;
+        }
+
+        if (databaseClient == null && _notFoundCache != null)
+        {
+            _notFoundCache.recordNotFound(profileId, clientId);
+        }
+
+        return databaseClient;
+    }
+
+    private boolean isKnownToBeAbsent(String clientId, String profileId)
+    {
+        return (_notFoundCache != null && _notFoundCache.isNotFound(profileId, clientId))
+                || (_knownClientIds != null && _knownClientIds.isDefinitelyAbsent(profileId, clientId));
+    }
+
+    /**
+     * Request the client from the JSON service. If an expired entry is given, the request is made conditional on
+     * the validators of the expired entry, and the entry is reused if the client was not modified.
+     *
+     * @return the client, or null if it was not found
+     */
+    private @Nullable DatabaseClientCache.Entry fetchClientById(String clientId, String profileId,
+                                                                @Nullable DatabaseClientCache.Entry expired)
+    {
+        if (_lookupBatcher != null && expired == null)
+        {
+            @Nullable DatabaseClientAttributes databaseClient = _lookupBatcher.get(profileId, clientId);
+            return databaseClient != null ? new DatabaseClientCache.Entry(databaseClient, ResponseValidators.NONE) : null;
+        }
+
+        String urlPath = String.join("/", _configuration.urlPath().replace(PROFILE_ID, profileId), clientId);
+        ResponseValidators validators = expired != null ? expired.validators() : ResponseValidators.NONE;
+
+        try
+        {
+            // Concurrent lookups of the same client share one request
+            return _clientRequests.execute(new ClientRequest(urlPath, validators),
+                    () -> fetchClientById(clientId, profileId, urlPath, expired));
+        }
+        catch (BackendUnavailableException e)
+        {
+            if (expired == null)
+            {
+                throw e;
+            }
+
+            _logger.debug("Using expired database client with Id: {} and profileId: {}, because the JSON " +
+                    "service is unavailable", clientId, profileId);
+
+            return expired;
+        }
+    }
+
+    private @Nullable DatabaseClientCache.Entry fetchClientById(String clientId, String profileId, String urlPath,
+                                                                @Nullable DatabaseClientCache.Entry expired)
+    {
+        String[] conditionalHeaders = expired != null ? expired.validators().asConditionalHeaders() : new String[0];
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.GET_CLIENT, HttpMethod.GET.getMethodString(), urlPath, (String) null, conditionalHeaders);
 
         // This is to avoid errors when trying to create a new database client from the UI
         if (httpResponse.statusCode() == 404)
@@ -86,12 +208,18 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
             return null;
         }
 
+        if (httpResponse.statusCode() == ResponseValidators.NOT_MODIFIED && expired != null)
+        {
+            _logger.debug("Database client with Id: {} and profileId: {} was not modified", clientId, profileId);
+            return expired.revalidated();
+        }
+
         String responseBody = httpResponse.body(asString());
         _logger.debug("Received database client JSON response: {}", responseBody);
 
         Map<String, Object> databaseClientMap = _json.fromJson(responseBody);
 
-        return DatabaseClientAttributes.from(databaseClientMap);
+        return new DatabaseClientCache.Entry(DatabaseClientAttributes.from(databaseClientMap), ResponseValidators.of(httpResponse));
     }
 
     @Override
@@ -100,19 +228,30 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
         _logger.debug("Updating the database client with profileId: {} and attributes : {}", profileId, attributes);
         attributes = attributes.withMeta(Meta.of("dbClient", null, Instant.now()));
 
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.PUT.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), _json.toJson(attributes));
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.UPDATE_CLIENT, HttpMethod.PUT.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), _json.toJson(attributes));
+        invalidateCachedClients(profileId, attributes.getClientId());
         String responseBody = httpResponse.body(asString());
 
         _logger.debug("Received updated database client JSON response: {}", responseBody);
 
-        return DatabaseClientAttributes.from(_json.fromJson(responseBody));
+        Map<String, Object> databaseClientMap = _json.fromJson(responseBody);
+        recordWrittenClient(profileId, databaseClientMap);
+
+        return DatabaseClientAttributes.from(databaseClientMap);
     }
 
     @Override
     public boolean delete(String clientId, String profileId)
     {
         _logger.debug("Deleting database client with Id: {} and profileId: {}", clientId, profileId);
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.DELETE.getMethodString(), String.join("/", _configuration.urlPath().replace(PROFILE_ID, profileId), clientId), (String) null);
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.DELETE_CLIENT, HttpMethod.DELETE.getMethodString(), String.join("/", _configuration.urlPath().replace(PROFILE_ID, profileId), clientId), (String) null);
+        invalidateCachedClients(profileId, clientId);
+
+        if (_clientReplica != null && WebUtils.hasSuccessStatusCode(httpResponse))
+        {
+            _clientReplica.recordDeleted(profileId, clientId);
+        }
+
         return WebUtils.hasSuccessStatusCode(httpResponse);
     }
 
@@ -127,21 +266,252 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
 
         _logger.debug("Requesting database clients with profileId: {}, activeClientsOnly: {}", profileId, activeClientsOnly);
 
+        @Nullable ClientReplica.Snapshot replicatedClients = _clientReplica != null ? _clientReplica.clients(profileId) : null;
+        @Nullable ClientPage<DatabaseClientAttributes> page = replicatedClients != null
+                ? replicatedClients.query(new LocalClientQuery(filters, sortRequest, activeClientsOnly), paginationRequest)
+                : null;
+
+        if (page != null)
+        {
+            _logger.debug("Listed {} replicated database clients, next cursor: {}", page.clients().size(), page.nextCursor());
+
+            return new PaginatedDataAccessResult<>(page.clients(), page.nextCursor());
+        }
+
         Map<String, Collection<String>> queryParams = prepareQueryParamsMap(filters, paginationRequest, sortRequest, activeClientsOnly);
         _logger.debug("Query Parameters: {}", queryParams);
 
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.GET.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), queryParams);
-        String responseBody = httpResponse.body(asString());
+        if (_pagePrefetcher != null)
+        {
+            page = _pagePrefetcher.get(profileId, queryParams, params -> requestClientPage(profileId, params));
+        }
+        else
+        {
+            page = requestClientPage(profileId, queryParams);
+        }
+
+        _logger.debug("Received {} database clients, next cursor: {}", page.clients().size(), page.nextCursor());
+
+        return new PaginatedDataAccessResult<>(page.clients(), page.nextCursor());
+    }
+
+    private ClientPage<DatabaseClientAttributes> requestClientPage(String profileId, Map<String, Collection<String>> queryParams)
+    {
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.LIST_CLIENTS, HttpMethod.GET.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), queryParams);
+
+        return readClientPage(httpResponse, reader -> DatabaseClientAttributes.from((Map<?, ?>) reader.nextValue()));
+    }
+
+    /**
+     * Request the clients with the given ids with one request, following the cursors of the pages if the JSON
+     * service responds with fewer clients per page than requested.
+     *
+     * @return the clients that were found, by their id
+     */
+    private Map<String, DatabaseClientAttributes> fetchClientsByIds(String profileId, Set<String> clientIds)
+    {
+        Map<String, Collection<String>> queryParams = new HashMap<>();
+        putIfNotNull(queryParams, "ids", String.join(",", clientIds));
+        putIfNotNull(queryParams, "count", String.valueOf(clientIds.size()));
+
+        Map<String, DatabaseClientAttributes> databaseClients = new HashMap<>();
+        listClients(BackendOperation.GET_CLIENT, profileId, queryParams,
+                reader -> DatabaseClientAttributes.from((Map<?, ?>) reader.nextValue()),
+                databaseClient -> databaseClients.put(databaseClient.getClientId(), databaseClient));
+
+        return databaseClients;
+    }
+
+    /**
+     * List the ids of all clients of the profile, while only reading the client_id field of each client.
+     */
+    private void listClientIds(String profileId, Consumer<String> clientIdConsumer)
+    {
+        listClients(BackendOperation.LIST_CLIENTS, profileId, new HashMap<>(),
+                JsonDatabaseClientDataAccessProvider::readClientId, clientIdConsumer);
+    }
+
+    /**
+     * List the JSON documents of the clients of the profile, or of the clients that changed since the given time.
+     */
+    @SuppressWarnings("unchecked")
+    private void listClients(String profileId, @Nullable Instant changedSince, Consumer<Map<String, Object>> clientConsumer)
+    {
+        Map<String, Collection<String>> queryParams = new HashMap<>();
+
+        if (changedSince != null)
+        {
+            putIfNotNull(queryParams, "changed_since", changedSince.toString());
+        }
+
+        listClients(BackendOperation.LIST_CLIENTS, profileId, queryParams,
+                reader -> (Map<String, Object>) reader.nextValue(), clientConsumer);
+    }
 
-        _logger.debug("Received database clients JSON response: {}", responseBody);
-        List<?> databaseClients = _json.fromJsonArray(responseBody);
+    /**
+     * List the clients of the profile, following the cursors of the pages. Listing fails when the JSON service
+     * returns a cursor it returned before, or a cursor with an empty page, so that a faulty JSON service can't make
+     * it go on forever, and the clients listed until then are not taken for all clients.
+     *
+     * @throws IllegalStateException if a page could not be requested, or the cursors of the pages do not advance
+     */
+    private <T> void listClients(BackendOperation operation, String profileId,
+                                 Map<String, Collection<String>> queryParams,
+                                 WebUtils.JsonBodyReader<T> clientReader, Consumer<T> clientConsumer)
+    {
+        Set<String> seenCursors = new HashSet<>();
+        @Nullable String cursor;
+
+        do
+        {
+            HttpResponse httpResponse = sendHttpRequest(operation, HttpMethod.GET.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), queryParams);
+
+            if (!WebUtils.hasSuccessStatusCode(httpResponse))
+            {
+                throw new IllegalStateException("Listing the database clients of profileId: " + profileId
+                        + " failed (HTTP response " + httpResponse.statusCode() + ")");
+            }
+
+            ClientPage<T> page = readClientPage(httpResponse, clientReader);
+
+            page.clients().forEach(clientConsumer);
+            cursor = page.nextCursor();
+
+            if (cursor != null && (page.clients().isEmpty() || !seenCursors.add(cursor)))
+            {
+                throw new IllegalStateException("The JSON service returned the cursor " + cursor + " again or with "
+                        + "an empty page, while listing the database clients of profileId: " + profileId);
+            }
+
+            putIfNotNull(queryParams, "cursor", cursor);
+        }
+        while (cursor != null);
+    }
+
+    private static @Nullable String readClientId(JsonStreamReader reader) throws IOException
+    {
+        @Nullable String clientId = null;
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            if ("client_id".equals(reader.nextName()) && reader.peek() == JsonStreamReader.Token.STRING)
+            {
+                clientId = reader.nextString();
+            }
+            else
+            {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return clientId;
+    }
+
+    /**
+     * Read the page of database clients while it is received, so that only the client currently being read is
+     * kept in its JSON form.
+     *
+     * <p>The page is either an array of clients, or an object with the clients in an {@code items} array and the
+     * cursor of the next page in a {@code next_cursor} field. If the cursor of the next page is not in the body,
+     * it is taken from the {@code cursor} parameter of the {@code Link} header with relation type {@code next}.
+     */
+    private <T> ClientPage<T> readClientPage(HttpResponse httpResponse, WebUtils.JsonBodyReader<T> clientReader)
+    {
+        ClientPage<T> page = WebUtils.readJsonBody(httpResponse, _configuration.maxPageSize(), reader -> {
+            if (reader.peek() == JsonStreamReader.Token.BEGIN_ARRAY)
+            {
+                return new ClientPage<>(readClients(reader, clientReader), null);
+            }
+
+            List<T> databaseClients = List.of();
+            @Nullable String nextCursor = null;
+
+            reader.beginObject();
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+
+                if ("items".equals(name))
+                {
+                    databaseClients = readClients(reader, clientReader);
+                }
+                else if ("next_cursor".equals(name) && reader.peek() == JsonStreamReader.Token.STRING)
+                {
+                    nextCursor = reader.nextString();
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            return new ClientPage<>(databaseClients, nextCursor);
+        });
+
+        if (page.nextCursor() == null)
+        {
+            @Nullable String nextCursor = nextCursorFromLinkHeader(httpResponse);
+
+            if (nextCursor != null)
+            {
+                page = new ClientPage<>(page.clients(), nextCursor);
+            }
+        }
+
+        return page;
+    }
+
+    private static <T> List<T> readClients(JsonStreamReader reader, WebUtils.JsonBodyReader<T> clientReader)
+            throws IOException
+    {
+        List<T> databaseClients = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            @Nullable T databaseClient = clientReader.read(reader);
+
+            if (databaseClient != null)
+            {
+                databaseClients.add(databaseClient);
+            }
+        }
+        reader.endArray();
+        return databaseClients;
+    }
 
-        List<DatabaseClientAttributes> databaseClientList = databaseClients.stream()
-                .map(Map.class::cast)
-                .map(DatabaseClientAttributes::from)
-                .toList();
+    private static @Nullable String nextCursorFromLinkHeader(HttpResponse httpResponse)
+    {
+        for (String header : httpResponse.headers().allValues("Link"))
+        {
+            for (String link : header.split(","))
+            {
+                int uriEnd = link.indexOf('>');
+
+                if (link.indexOf('<') < 0 || uriEnd < 0 || !NEXT_RELATION.matcher(link.substring(uriEnd)).find())
+                {
+                    continue;
+                }
+
+                String uri = link.substring(link.indexOf('<') + 1, uriEnd);
+                int queryStart = uri.indexOf('?');
+
+                if (queryStart < 0)
+                {
+                    continue;
+                }
+
+                for (String parameter : uri.substring(queryStart + 1).split("&"))
+                {
+                    if (parameter.startsWith("cursor="))
+                    {
+                        return URLDecoder.decode(parameter.substring("cursor=".length()), StandardCharsets.UTF_8);
+                    }
+                }
+            }
+        }
 
-        return new PaginatedDataAccessResult<>(databaseClientList, paginationRequest != null ? paginationRequest.getCursor() : null);
+        return null;
     }
 
     private Map<String, Collection<String>> prepareQueryParamsMap(@Nullable DatabaseClientAttributesFiltering filters,
@@ -180,33 +550,306 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
     {
         _logger.debug("Getting count of clients with profileId: {}, activeClientsOnly: {}", profileId, activeClientsOnly);
 
+        @Nullable ClientReplica.Snapshot replicatedClients = _clientReplica != null ? _clientReplica.clients(profileId) : null;
+
+        if (replicatedClients != null)
+        {
+            return replicatedClients.count(new LocalClientQuery(filters, null, activeClientsOnly));
+        }
+
         Map<String, Collection<String>> queryParams = prepareQueryParamsMap(filters, null, null, activeClientsOnly);
         _logger.debug("Query Parameters for fetching database clients count : {}", queryParams);
 
-        HttpResponse httpResponse = sendHttpRequest(HttpMethod.GET.getMethodString(), _configuration.urlPath().replace(PROFILE_ID, profileId), queryParams);
+        @Nullable Long count = null;
+
+        if (_configuration.countUsing() == DatabaseClientConfiguration.CountUsing.COUNT_ENDPOINT
+                && !_countEndpointUnavailable.get())
+        {
+            count = requestCountFromCountEndpoint(profileId, queryParams);
+        }
+
+        if (count == null)
+        {
+            count = countListedClients(profileId, queryParams);
+        }
 
-        long count = _json.fromJsonArray(httpResponse.body(asString())).size();
         _logger.debug("Total count of database clients returned : {}", count);
 
         return count;
     }
 
-    private HttpResponse sendHttpRequest(String method, String urlPath, @Nullable String requestBody)
+    /**
+     * Request the count from the count endpoint, which responds with a number, or an object with a count field.
+     *
+     * @return the count, or null if the JSON service does not provide a count endpoint, or it responded without a count
+     * @throws IllegalStateException if the count endpoint reported another failure
+     */
+    private @Nullable Long requestCountFromCountEndpoint(String profileId, Map<String, Collection<String>> queryParams)
+    {
+        HttpResponse httpResponse = sendHttpRequest(BackendOperation.COUNT_CLIENTS, HttpMethod.GET.getMethodString(),
+                String.join("/", _configuration.urlPath().replace(PROFILE_ID, profileId), "count"), queryParams);
+
+        int statusCode = httpResponse.statusCode();
+
+        if (statusCode == 404 || statusCode == 405 || statusCode == 501)
+        {
+            _logger.info("The JSON service does not provide a count endpoint (HTTP response {}), " +
+                    "database clients will be listed to count them", statusCode);
+            _countEndpointUnavailable.set(true);
+
+            return null;
+        }
+
+        // Listing all clients instead would only add to the load of a JSON service that is failing
+        if (!WebUtils.hasSuccessStatusCode(httpResponse))
+        {
+            throw new IllegalStateException("Requesting the count of the database clients of profileId: "
+                    + profileId + " failed (HTTP response " + statusCode + ")");
+        }
+
+        return WebUtils.readJsonBody(httpResponse, JsonDatabaseClientDataAccessProvider::readCount);
+    }
+
+    private static @Nullable Long readCount(JsonStreamReader reader) throws IOException
+    {
+        switch (reader.peek())
+        {
+            case NUMBER:
+                return reader.nextLong();
+            case BEGIN_OBJECT:
+                @Nullable Long count = null;
+                reader.beginObject();
+                while (reader.hasNext())
+                {
+                    if ("count".equals(reader.nextName()) && reader.peek() == JsonStreamReader.Token.NUMBER)
+                    {
+                        count = reader.nextLong();
+                    }
+                    else
+                    {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return count;
+            default:
+                _logger.debug("The count endpoint responded with an unexpected {}", reader.peek());
+                return null;
+        }
+    }
+
+    /**
+     * List the clients, following the cursors of the pages, and count them while they are read, without
+     * materializing them.
+     */
+    private long countListedClients(String profileId, Map<String, Collection<String>> queryParams)
+    {
+        AtomicLong count = new AtomicLong();
+
+        listClients(BackendOperation.COUNT_CLIENTS, profileId, new HashMap<>(queryParams), reader -> {
+            reader.skipValue();
+            return Boolean.TRUE;
+        }, client -> count.incrementAndGet());
+
+        return count.get();
+    }
+
+    /**
+     * Like {@link #getClientById(String, String)}, but runs on a virtual thread instead of blocking the caller, so
+     * that clients can be looked up concurrently with other work. Cancelling the future, or timing it out, interrupts
+     * the request to the JSON service. The other asynchronous operations run the same way.
+     *
+     * @return the future of the client, which completes with null if the client was not found
+     */
+    public CompletableFuture<DatabaseClientAttributes> getClientByIdAsync(String clientId, String profileId)
+    {
+        return BackgroundTasks.supply(() -> getClientById(clientId, profileId));
+    }
+
+    /**
+     * Like {@link #create(DatabaseClientAttributes, String)}, but without blocking the caller.
+     */
+    public CompletableFuture<DatabaseClientAttributes> createAsync(DatabaseClientAttributes attributes, String profileId)
+    {
+        return BackgroundTasks.supply(() -> create(attributes, profileId));
+    }
+
+    /**
+     * Like {@link #update(DatabaseClientAttributes, String)}, but without blocking the caller.
+     */
+    public CompletableFuture<DatabaseClientAttributes> updateAsync(DatabaseClientAttributes attributes, String profileId)
+    {
+        return BackgroundTasks.supply(() -> update(attributes, profileId));
+    }
+
+    /**
+     * Like {@link #delete(String, String)}, but without blocking the caller.
+     */
+    public CompletableFuture<Boolean> deleteAsync(String clientId, String profileId)
+    {
+        return BackgroundTasks.supply(() -> delete(clientId, profileId));
+    }
+
+    /**
+     * Like {@link #getAllClientsBy(String, DatabaseClientAttributesFiltering, PaginationRequest,
+     * DatabaseClientAttributesSorting, boolean)}, but without blocking the caller.
+     */
+    public CompletableFuture<PaginatedDataAccessResult<DatabaseClientAttributes>> getAllClientsByAsync(
+            String profileId,
+            @Nullable DatabaseClientAttributesFiltering filters,
+            @Nullable PaginationRequest paginationRequest,
+            @Nullable DatabaseClientAttributesSorting sortRequest,
+            boolean activeClientsOnly)
+    {
+        return BackgroundTasks.supply(() -> getAllClientsBy(profileId, filters, paginationRequest, sortRequest,
+                activeClientsOnly));
+    }
+
+    /**
+     * Like {@link #getClientCountBy(String, DatabaseClientAttributesFiltering, boolean)}, but without blocking the
+     * caller.
+     */
+    public CompletableFuture<Long> getClientCountByAsync(String profileId,
+                                                         @Nullable DatabaseClientAttributesFiltering filters,
+                                                         boolean activeClientsOnly)
+    {
+        return BackgroundTasks.supply(() -> getClientCountBy(profileId, filters, activeClientsOnly));
+    }
+
+    /**
+     * Statistics of the database client cache, such as the number of hits, misses and evictions.
+     *
+     * @return the cache statistics, or empty statistics if the cache is not enabled
+     */
+    public CacheStats getClientCacheStats()
+    {
+        return _clientCache != null ? _clientCache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * The number of lookups of database clients that shared the request of a concurrent lookup of the same client,
+     * instead of making their own request.
+     */
+    public long getCoalescedRequestCount()
+    {
+        return _clientRequests.coalescedCount();
+    }
+
+    /**
+     * The state of the circuit breaker of each operation, e.g. CLOSED, OPEN or HALF_OPEN.
+     *
+     * @return the states by operation, or an empty map if no circuit breaker is configured
+     */
+    public Map<String, String> getCircuitBreakerStates()
+    {
+        return _backendGuard.circuitBreakerStates();
+    }
+
+    /**
+     * The number of requests that were not sent to the JSON service, because their circuit breaker was open.
+     */
+    public long getRejectedRequestCount()
+    {
+        return _backendGuard.rejectedCount();
+    }
+
+    /**
+     * Statistics of the limit of concurrent requests to the JSON service.
+     *
+     * @return the statistics, or null if the limit is not configured
+     */
+    public @Nullable ConcurrencyLimitStats getConcurrencyLimitStats()
+    {
+        return _backendGuard.concurrencyLimitStats();
+    }
+
+    /**
+     * The number of requests to the JSON service that did not complete within the deadline of their operation. These
+     * are not counted as rejected requests.
+     */
+    public long getDeadlineMissedCount()
+    {
+        return _backendGuard.deadlineMissedCount();
+    }
+
+    /**
+     * The number of requests to the JSON service that were sent again, because they failed.
+     */
+    public long getRetriedRequestCount()
+    {
+        return _backendGuard.retriedCount();
+    }
+
+    /**
+     * The number of requests to the JSON service that were sent a second time, because the first one was slow.
+     */
+    public long getHedgedRequestCount()
+    {
+        return _backendGuard.hedgedCount();
+    }
+
+    private void invalidateCachedClients(String profileId, @Nullable String clientId)
+    {
+        if (_clientCache != null)
+        {
+            _clientCache.invalidate(profileId, clientId);
+        }
+
+        if (_pagePrefetcher != null)
+        {
+            _pagePrefetcher.invalidateAll();
+        }
+    }
+
+    private void recordWrittenClient(String profileId, Map<String, Object> databaseClientMap)
+    {
+        if (_clientReplica != null)
+        {
+            _clientReplica.recordWritten(profileId, databaseClientMap);
+        }
+    }
+
+    private void recordCreatedClient(String profileId, @Nullable String clientId)
+    {
+        if (clientId == null)
+        {
+            return;
+        }
+
+        if (_notFoundCache != null)
+        {
+            _notFoundCache.recordCreated(profileId, clientId);
+        }
+
+        if (_knownClientIds != null)
+        {
+            _knownClientIds.recordCreated(profileId, clientId);
+        }
+    }
+
+    private HttpResponse sendHttpRequest(BackendOperation operation, String method, String urlPath,
+                                         @Nullable String requestBody, String... headers)
     {
         HttpRequest.Builder requestBuilder = _webServiceClient.withPath(urlPath)
                 .request()
                 .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
                 .contentType(JsonClientRequestContentType.APPLICATION_JSON.toString());
 
+        if (headers.length > 0)
+        {
+            requestBuilder.header(headers);
+        }
+
         if (requestBody != null)
         {
             requestBuilder.body(HttpRequest.fromString(requestBody));
         }
 
-        return requestBuilder.method(method).response();
+        return _backendGuard.send(operation, () -> requestBuilder.method(method).response());
     }
 
-    private HttpResponse sendHttpRequest(String method, String urlPath, Map<String, Collection<String>> queryParams)
+    private HttpResponse sendHttpRequest(BackendOperation operation, String method, String urlPath,
+                                         Map<String, Collection<String>> queryParams)
     {
         HttpRequest.Builder requestBuilder = _webServiceClient.withPath(urlPath)
                 .withQueries(queryParams)
@@ -214,6 +857,10 @@ public class JsonDatabaseClientDataAccessProvider implements DatabaseClientDataA
                 .accept(JsonClientRequestContentType.APPLICATION_JSON.toString())
                 .contentType(JsonClientRequestContentType.APPLICATION_JSON.toString());
 
-        return requestBuilder.method(method).response();
+        return _backendGuard.send(operation, () -> requestBuilder.method(method).response());
+    }
+
+    private record ClientRequest(String urlPath, ResponseValidators validators)
+    {
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A JSON Pointer (RFC 6901), such as {@code /data/user}, that selects a value of a JSON document while the document
+ * is read, skipping the values before it without materializing them.
+ */
+final class JsonPointer
+{
+    private final String _pointer;
+    private final List<String> _referenceTokens;
+
+    private JsonPointer(String pointer, List<String> referenceTokens)
+    {
+        _pointer = pointer;
+        _referenceTokens = referenceTokens;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pointer is neither empty nor starts with '/'
+     */
+    static JsonPointer parse(String pointer)
+    {
+        if (!pointer.isEmpty() && pointer.charAt(0) != '/')
+        {
+            throw new IllegalArgumentException("A JSON pointer must be empty or start with '/': " + pointer);
+        }
+
+        List<String> referenceTokens = new ArrayList<>();
+
+        for (int start = 1; start <= pointer.length(); )
+        {
+            int end = pointer.indexOf('/', start);
+
+            if (end < 0)
+            {
+                end = pointer.length();
+            }
+
+            referenceTokens.add(pointer.substring(start, end).replace("~1", "/").replace("~0", "~"));
+            start = end + 1;
+        }
+
+        return new JsonPointer(pointer, List.copyOf(referenceTokens));
+    }
+
+    /**
+     * Advance the reader to the value that the pointer refers to, skipping all values before it.
+     *
+     * @return true if the reader is positioned at the value, or false if the document has no such value
+     */
+    boolean seek(JsonStreamReader reader) throws IOException
+    {
+        for (String referenceToken : _referenceTokens)
+        {
+            if (!seekMember(reader, referenceToken))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean seekMember(JsonStreamReader reader, String referenceToken) throws IOException
+    {
+        switch (reader.peek())
+        {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+
+                while (reader.hasNext())
+                {
+                    if (referenceToken.equals(reader.nextName()))
+                    {
+                        return true;
+                    }
+
+                    reader.skipValue();
+                }
+
+                return false;
+            case BEGIN_ARRAY:
+                int index = arrayIndex(referenceToken);
+
+                if (index < 0)
+                {
+                    return false;
+                }
+
+                reader.beginArray();
+
+                for (int i = 0; i < index && reader.hasNext(); i++)
+                {
+                    reader.skipValue();
+                }
+
+                return reader.hasNext();
+            default:
+                return false;
+        }
+    }
+
+    private static int arrayIndex(String referenceToken)
+    {
+        // Array indices are decimal digits, without leading zeros
+        if (referenceToken.isEmpty() || (referenceToken.length() > 1 && referenceToken.charAt(0) == '0')
+                || !referenceToken.chars().allMatch(c -> c >= '0' && c <= '9'))
+        {
+            return -1;
+        }
+
+        try
+        {
+            return Integer.parseInt(referenceToken);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return _pointer;
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull parser that reads a JSON document one token at a time, so that responses can be processed while they
+ * are read, without first reading them into a String and parsing them into a complete document.
+ *
+ * <p>Values are materialized in the same shape as {@link se.curity.identityserver.sdk.service.Json#fromJson(String)}
+ * produces them: objects as {@link Map}, arrays as {@link List}, and numbers, strings and booleans as their boxed
+ * types.
+ */
+final class JsonStreamReader implements Closeable
+{
+    enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader _reader;
+    private final char[] _buffer = new char[4096];
+    private int _position = 0;
+    private int _limit = 0;
+    private long _consumed = 0;
+
+    private int[] _scopes = new int[32];
+    private int _depth = 1;
+
+    private @Nullable Token _peeked;
+    private @Nullable String _peekedNumber;
+    private boolean _peekedBoolean;
+
+    JsonStreamReader(Reader reader)
+    {
+        _reader = reader;
+        _scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException
+    {
+        if (_peeked != null)
+        {
+            return _peeked;
+        }
+
+        int scope = _scopes[_depth - 1];
+        int c;
+
+        switch (scope)
+        {
+            case EMPTY_ARRAY:
+                _scopes[_depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                return _peeked = c == ']' ? Token.END_ARRAY : peekValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']')
+                {
+                    return _peeked = Token.END_ARRAY;
+                }
+                expect(c, ',');
+                return _peeked = peekValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}')
+                {
+                    return _peeked = Token.END_OBJECT;
+                }
+                if (scope == NONEMPTY_OBJECT)
+                {
+                    expect(c, ',');
+                    c = nextNonWhitespace();
+                }
+                expect(c, '"');
+                _scopes[_depth - 1] = DANGLING_NAME;
+                return _peeked = Token.NAME;
+            case DANGLING_NAME:
+                expect(nextNonWhitespace(), ':');
+                _scopes[_depth - 1] = NONEMPTY_OBJECT;
+                return _peeked = peekValue(nextNonWhitespace());
+            case EMPTY_DOCUMENT:
+                _scopes[_depth - 1] = NONEMPTY_DOCUMENT;
+                c = nextNonWhitespace();
+                // An empty document has no value at all
+                return _peeked = c == -1 ? Token.END_DOCUMENT : peekValue(c);
+            default:
+                c = nextNonWhitespace();
+                if (c != -1)
+                {
+                    throw syntaxError("Unexpected data after the end of the document");
+                }
+                return _peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    boolean hasNext() throws IOException
+    {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException
+    {
+        consume(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException
+    {
+        consume(Token.END_OBJECT);
+        _depth--;
+    }
+
+    void beginArray() throws IOException
+    {
+        consume(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException
+    {
+        consume(Token.END_ARRAY);
+        _depth--;
+    }
+
+    String nextName() throws IOException
+    {
+        consume(Token.NAME);
+        return readString();
+    }
+
+    String nextString() throws IOException
+    {
+        Token token = peek();
+
+        if (token == Token.NUMBER)
+        {
+            _peeked = null;
+            return _peekedNumber;
+        }
+
+        consume(Token.STRING);
+        return readString();
+    }
+
+    Number nextNumber() throws IOException
+    {
+        consume(Token.NUMBER);
+        return toNumber(_peekedNumber);
+    }
+
+    long nextLong() throws IOException
+    {
+        consume(Token.NUMBER);
+
+        try
+        {
+            return Long.parseLong(_peekedNumber);
+        }
+        catch (NumberFormatException e)
+        {
+            return new BigDecimal(_peekedNumber).longValueExact();
+        }
+    }
+
+    boolean nextBoolean() throws IOException
+    {
+        consume(Token.BOOLEAN);
+        return _peekedBoolean;
+    }
+
+    void nextNull() throws IOException
+    {
+        consume(Token.NULL);
+    }
+
+    /**
+     * Skip the next value, including all of its nested values, without materializing it.
+     */
+    void skipValue() throws IOException
+    {
+        int depth = 0;
+
+        do
+        {
+            switch (peek())
+            {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    _peeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("Unexpected end of the document");
+                default:
+                    _peeked = null;
+            }
+        }
+        while (depth > 0);
+    }
+
+    /**
+     * Read the next value, materializing objects and arrays completely.
+     */
+    @Nullable
+    Object nextValue() throws IOException
+    {
+        switch (peek())
+        {
+            case BEGIN_OBJECT:
+                Map<String, Object> object = new LinkedHashMap<>();
+                beginObject();
+                while (hasNext())
+                {
+                    object.put(nextName(), nextValue());
+                }
+                endObject();
+                return object;
+            case BEGIN_ARRAY:
+                List<Object> array = new ArrayList<>();
+                beginArray();
+                while (hasNext())
+                {
+                    array.add(nextValue());
+                }
+                endArray();
+                return array;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a value but was " + peek());
+        }
+    }
+
+    /**
+     * The number of characters that have been read from the underlying reader so far.
+     */
+    long charactersRead()
+    {
+        return _consumed + _position;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _reader.close();
+    }
+
+    private void consume(Token expected) throws IOException
+    {
+        Token token = peek();
+
+        if (token != expected)
+        {
+            throw syntaxError("Expected " + expected + " but was " + token);
+        }
+
+        _peeked = null;
+    }
+
+    private void push(int scope)
+    {
+        if (_depth == _scopes.length)
+        {
+            _scopes = Arrays.copyOf(_scopes, _depth * 2);
+        }
+
+        _scopes[_depth++] = scope;
+    }
+
+    private Token peekValue(int c) throws IOException
+    {
+        switch (c)
+        {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                _peekedBoolean = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("alse");
+                _peekedBoolean = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("Unexpected end of the document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                {
+                    _peekedNumber = readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void readLiteral(String remainder) throws IOException
+    {
+        for (int i = 0; i < remainder.length(); i++)
+        {
+            if (read() != remainder.charAt(i))
+            {
+                throw syntaxError("Invalid literal");
+            }
+        }
+    }
+
+    private String readNumber(char first) throws IOException
+    {
+        StringBuilder number = new StringBuilder().append(first);
+
+        while (true)
+        {
+            if (_position == _limit && !fill())
+            {
+                break;
+            }
+
+            char c = _buffer[_position];
+
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-')
+            {
+                number.append(c);
+                _position++;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        return number.toString();
+    }
+
+    private static Number toNumber(String number)
+    {
+        if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0)
+        {
+            try
+            {
+                return Long.parseLong(number);
+            }
+            catch (NumberFormatException e)
+            {
+                return new BigInteger(number);
+            }
+        }
+
+        return Double.parseDouble(number);
+    }
+
+    private String readString() throws IOException
+    {
+        StringBuilder result = new StringBuilder();
+
+        while (true)
+        {
+            int c = read();
+
+            if (c == '"')
+            {
+                return result.toString();
+            }
+            else if (c == '\\')
+            {
+                result.append(readEscape());
+            }
+            else if (c == -1)
+            {
+                throw syntaxError("Unterminated string");
+            }
+            else
+            {
+                result.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException
+    {
+        while (true)
+        {
+            int c = read();
+
+            if (c == '"')
+            {
+                return;
+            }
+            else if (c == '\\')
+            {
+                readEscape();
+            }
+            else if (c == -1)
+            {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException
+    {
+        int c = read();
+
+        switch (c)
+        {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0)
+                    {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private void expect(int actual, char expected) throws IOException
+    {
+        if (actual != expected)
+        {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException
+    {
+        int c;
+
+        do
+        {
+            c = read();
+        }
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+
+        return c;
+    }
+
+    private int read() throws IOException
+    {
+        if (_position == _limit && !fill())
+        {
+            return -1;
+        }
+
+        return _buffer[_position++];
+    }
+
+    private boolean fill() throws IOException
+    {
+        _consumed += _limit;
+        _position = 0;
+        _limit = 0;
+
+        int read = _reader.read(_buffer, 0, _buffer.length);
+
+        if (read > 0)
+        {
+            _limit = read;
+            return true;
+        }
+
+        return false;
+    }
+
+    private IOException syntaxError(String message)
+    {
+        return new IOException("Malformed JSON at character " + charactersRead() + ": " + message);
+    }
+}
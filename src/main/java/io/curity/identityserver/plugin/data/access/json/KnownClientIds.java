@@ -0,0 +1,183 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A Bloom filter of the ids of the database clients of each profile, which can tell that a client is definitely
+ * not present without asking the JSON service.
+ *
+ * <p>The filter of a profile is built in the background from the list of all clients, and rebuilt when it is
+ * older than the configured interval. Until the first filter of a profile is built, it can't tell anything about
+ * the clients of that profile. Clients created through this data source are added to the filter right away.
+ *
+ * <p>Clients created outside of this data source are not in the filter until it is rebuilt, so the filter only
+ * answers that a client is not present for a limited time after it was built. After that, the client has to be
+ * requested from the JSON service until the filter is rebuilt.
+ */
+final class KnownClientIds
+{
+    private static final Logger _logger = LoggerFactory.getLogger(KnownClientIds.class);
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private final DatabaseClientConfiguration.KnownClientIdFilter _configuration;
+    private final BiConsumer<String, Consumer<String>> _clientIdLister;
+    private final Map<String, ProfileFilter> _profileFilters = new ConcurrentHashMap<>();
+
+    /**
+     * @param configuration the configuration of the filter
+     * @param clientIdLister lists the ids of all clients of the given profile to the given consumer
+     */
+    KnownClientIds(DatabaseClientConfiguration.KnownClientIdFilter configuration,
+                   BiConsumer<String, Consumer<String>> clientIdLister)
+    {
+        _configuration = configuration;
+        _clientIdLister = clientIdLister;
+
+        if (configuration.absentTimeToLive() > 0 && configuration.rebuildInterval() >= configuration.absentTimeToLive())
+        {
+            _logger.warn("The filter of known database client ids is rebuilt every {} seconds, but only answers for "
+                    + "{} seconds after it was built, so it can't tell that a client is not present most of the time",
+                    configuration.rebuildInterval(), configuration.absentTimeToLive());
+        }
+    }
+
+    /**
+     * @return true if the client was not present in the profile when the filter was built, and the filter is recent
+     * enough to be trusted, false if it might be present
+     */
+    boolean isDefinitelyAbsent(String profileId, String clientId)
+    {
+        ProfileFilter profileFilter = _profileFilters.computeIfAbsent(profileId, ProfileFilter::new);
+        profileFilter.rebuildIfStale();
+
+        @Nullable BloomFilter<String> current = profileFilter._current;
+
+        return current != null && profileFilter.isTrusted() && !current.mightContain(clientId);
+    }
+
+    void recordCreated(String profileId, String clientId)
+    {
+        @Nullable ProfileFilter profileFilter = _profileFilters.get(profileId);
+
+        if (profileFilter != null)
+        {
+            profileFilter.put(clientId);
+        }
+    }
+
+    private BloomFilter<String> newFilter()
+    {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), _configuration.expectedClients(),
+                FALSE_POSITIVE_PROBABILITY);
+    }
+
+    private final class ProfileFilter
+    {
+        private final String _profileId;
+        private final AtomicBoolean _rebuilding = new AtomicBoolean(false);
+        private volatile @Nullable BloomFilter<String> _current;
+        private volatile @Nullable BloomFilter<String> _building;
+        private volatile long _rebuildStartedAt;
+        private volatile long _builtAt;
+
+        private ProfileFilter(String profileId)
+        {
+            _profileId = profileId;
+        }
+
+        private boolean isTrusted()
+        {
+            long absentTimeToLiveMillis = _configuration.absentTimeToLive() * 1000L;
+
+            return absentTimeToLiveMillis <= 0 || System.currentTimeMillis() - _builtAt <= absentTimeToLiveMillis;
+        }
+
+        private void rebuildIfStale()
+        {
+            // A failed rebuild is also retried only after the interval, to not list all clients on every lookup
+            boolean stale = System.currentTimeMillis() - _rebuildStartedAt > _configuration.rebuildInterval() * 1000L;
+
+            if (stale && _rebuilding.compareAndSet(false, true))
+            {
+                _rebuildStartedAt = System.currentTimeMillis();
+                BackgroundTasks.executor().execute(this::rebuild);
+            }
+        }
+
+        private void rebuild()
+        {
+            try
+            {
+                BloomFilter<String> filter = newFilter();
+                // Clients that are created while the filter is built are added to it, in case the list of
+                // clients was requested before they were created.
+                _building = filter;
+                long startedAt = System.currentTimeMillis();
+                _clientIdLister.accept(_profileId, filter::put);
+                // The filter may miss clients that were created elsewhere since the list was requested
+                _builtAt = startedAt;
+                _current = filter;
+
+                _logger.debug("Built filter of known database client ids for profileId: {}, " +
+                        "approximately {} clients", _profileId, filter.approximateElementCount());
+            }
+            catch (RuntimeException e)
+            {
+                _logger.warn("Could not build the filter of known database client ids for profileId: {}",
+                        _profileId, e);
+            }
+            finally
+            {
+                _building = null;
+                _rebuilding.set(false);
+            }
+        }
+
+        private void put(String clientId)
+        {
+            // The filter that is being built is updated first, so that the client is not lost if the rebuild
+            // completes in between
+            @Nullable BloomFilter<String> building = _building;
+
+            if (building != null)
+            {
+                building.put(clientId);
+            }
+
+            @Nullable BloomFilter<String> current = _current;
+
+            if (current != null)
+            {
+                current.put(clientId);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latency of the most recent requests, and a percentile of them, which is computed again after every
+ * few requests rather than on every read.
+ */
+final class LatencyTracker
+{
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final int _percentile;
+    private final AtomicLongArray _samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong _count = new AtomicLong();
+    private volatile long _percentileNanos = -1;
+
+    /**
+     * @param percentile the percentile to compute, from 1 to 100
+     */
+    LatencyTracker(int percentile)
+    {
+        _percentile = Math.min(Math.max(percentile, 1), 100);
+    }
+
+    void record(long latencyNanos)
+    {
+        long count = _count.incrementAndGet();
+        _samples.set((int) ((count - 1) % SAMPLES), latencyNanos);
+
+        if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0)
+        {
+            recompute((int) Math.min(count, SAMPLES));
+        }
+    }
+
+    /**
+     * @return the percentile of the latency of recent requests, or -1 if too few requests were recorded yet
+     */
+    long percentileNanos()
+    {
+        return _percentileNanos;
+    }
+
+    private void recompute(int sampleCount)
+    {
+        long[] samples = new long[sampleCount];
+
+        for (int i = 0; i < sampleCount; i++)
+        {
+            samples[i] = _samples.get(i);
+        }
+
+        Arrays.sort(samples);
+        _percentileNanos = samples[(int) Math.ceil(sampleCount * _percentile / 100.0) - 1];
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.datasource.query.DatabaseClientAttributesFiltering;
+import se.curity.identityserver.sdk.datasource.query.DatabaseClientAttributesSorting;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The filtering and sorting of database clients, applied to the JSON documents of the clients, for when the clients
+ * are queried locally instead of by the JSON service.
+ *
+ * <p>Names and search terms match case-insensitively as substrings. The name filter matches the name of the client,
+ * and the search terms match its id, name, description or any of its tags. The tags filter matches clients with at
+ * least one of the tags. Clients are sorted by the field of the document with the sort-by name, or else by the field
+ * of the meta object with that name, and finally by their id.
+ */
+final class LocalClientQuery
+{
+    static final String CLIENT_ID = "client_id";
+    static final String NAME = "name";
+    static final String DESCRIPTION = "description";
+    static final String TAGS = "tags";
+    static final String STATUS = "status";
+    static final String META = "meta";
+    private static final String ACTIVE = "ACTIVE";
+
+    private final @Nullable String _nameFilter;
+    private final @Nullable String _searchTerms;
+    private final @Nullable Set<String> _tags;
+    private final boolean _activeClientsOnly;
+    private final Ordering _ordering;
+
+    LocalClientQuery(@Nullable DatabaseClientAttributesFiltering filters,
+                     @Nullable DatabaseClientAttributesSorting sortRequest,
+                     boolean activeClientsOnly)
+    {
+        this(filters != null ? filters.getClientNameFilter() : null,
+                filters != null ? filters.getSearchTermsFilter() : null,
+                filters != null ? filters.getTagsFilter() : null,
+                activeClientsOnly,
+                Ordering.of(sortRequest));
+    }
+
+    LocalClientQuery(@Nullable String nameFilter, @Nullable String searchTerms, @Nullable Set<String> tags,
+                     boolean activeClientsOnly, Ordering ordering)
+    {
+        _nameFilter = lowerCaseOrNull(nameFilter);
+        _searchTerms = lowerCaseOrNull(searchTerms);
+        _tags = tags != null && !tags.isEmpty() ? tags : null;
+        _activeClientsOnly = activeClientsOnly;
+        _ordering = ordering;
+    }
+
+    boolean matches(Map<String, Object> document)
+    {
+        if (_activeClientsOnly && !isActive(document))
+        {
+            return false;
+        }
+
+        if (_nameFilter != null && !containsIgnoringCase(document.get(NAME), _nameFilter))
+        {
+            return false;
+        }
+
+        if (_searchTerms != null
+                && !containsIgnoringCase(document.get(CLIENT_ID), _searchTerms)
+                && !containsIgnoringCase(document.get(NAME), _searchTerms)
+                && !containsIgnoringCase(document.get(DESCRIPTION), _searchTerms)
+                && tagsOf(document).stream().noneMatch(tag -> containsIgnoringCase(tag, _searchTerms)))
+        {
+            return false;
+        }
+
+        return _tags == null || tagsOf(document).stream().anyMatch(_tags::contains);
+    }
+
+    /**
+     * @return the lower case name filter, or null if clients are not filtered by name
+     */
+    @Nullable
+    String nameFilter()
+    {
+        return _nameFilter;
+    }
+
+    /**
+     * @return the lower case search terms, or null if clients are not filtered by search terms
+     */
+    @Nullable
+    String searchTerms()
+    {
+        return _searchTerms;
+    }
+
+    /**
+     * @return the tags of which clients need to have at least one, or null if clients are not filtered by tags
+     */
+    @Nullable
+    Set<String> tags()
+    {
+        return _tags;
+    }
+
+    boolean activeClientsOnly()
+    {
+        return _activeClientsOnly;
+    }
+
+    Ordering ordering()
+    {
+        return _ordering;
+    }
+
+    static boolean isActive(Map<String, Object> document)
+    {
+        @Nullable Object status = document.get(STATUS);
+
+        return status == null || ACTIVE.equals(status);
+    }
+
+    static Collection<?> tagsOf(Map<String, Object> document)
+    {
+        return document.get(TAGS) instanceof Collection<?> tags ? tags : Set.of();
+    }
+
+    /**
+     * The value of the field to sort by, from the document, or else from its meta object.
+     */
+    static @Nullable Object sortValue(Map<String, Object> document, String field)
+    {
+        @Nullable Object value = document.get(field);
+
+        if (value == null && document.get(META) instanceof Map<?, ?> meta)
+        {
+            value = meta.get(field);
+        }
+
+        return value;
+    }
+
+    /**
+     * Compare strings case-insensitively and numbers numerically, with absent values last in either order.
+     */
+    static int compareValues(@Nullable Object first, @Nullable Object second, boolean descending)
+    {
+        if (first == null || second == null)
+        {
+            return first == second ? 0 : first == null ? 1 : -1;
+        }
+
+        int comparison;
+
+        if (first instanceof Number firstNumber && second instanceof Number secondNumber)
+        {
+            comparison = Double.compare(firstNumber.doubleValue(), secondNumber.doubleValue());
+        }
+        else
+        {
+            comparison = String.CASE_INSENSITIVE_ORDER.compare(first.toString(), second.toString());
+        }
+
+        return descending ? -comparison : comparison;
+    }
+
+    private static boolean containsIgnoringCase(@Nullable Object value, String lowerCaseTerm)
+    {
+        return value != null && value.toString().toLowerCase(Locale.ROOT).contains(lowerCaseTerm);
+    }
+
+    private static @Nullable String lowerCaseOrNull(@Nullable String value)
+    {
+        return value != null && !value.isEmpty() ? value.toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * The order of the clients, by the fields to sort by, and finally by their id.
+     */
+    record Ordering(@Nullable String sortBy, @Nullable String secondarySortBy, boolean descending)
+    {
+        static final Ordering BY_CLIENT_ID = new Ordering(null, null, false);
+
+        static Ordering of(@Nullable DatabaseClientAttributesSorting sortRequest)
+        {
+            if (sortRequest == null || sortRequest.getSortBy() == null)
+            {
+                return BY_CLIENT_ID;
+            }
+
+            return new Ordering(sortRequest.getSortBy(), sortRequest.getSecondarySortBy(),
+                    sortRequest.getSortOrder() == DatabaseClientAttributesSorting.SortOrder.DESCENDING);
+        }
+
+        Comparator<Map<String, Object>> comparator()
+        {
+            Comparator<Map<String, Object>> byClientId = Comparator.comparing(
+                    document -> String.valueOf(document.get(CLIENT_ID)));
+
+            if (sortBy == null)
+            {
+                return byClientId;
+            }
+
+            Comparator<Map<String, Object>> comparator = byField(sortBy);
+
+            if (secondarySortBy != null)
+            {
+                comparator = comparator.thenComparing(byField(secondarySortBy));
+            }
+
+            return comparator.thenComparing(byClientId);
+        }
+
+        private Comparator<Map<String, Object>> byField(String field)
+        {
+            return (first, second) -> compareValues(sortValue(first, field), sortValue(second, field), descending);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration;
+
+import java.time.Duration;
+
+/**
+ * Remembers the ids of database clients that the JSON service reported as not found, for a short time.
+ */
+final class NotFoundClientCache
+{
+    private final Cache<ClientKey, Boolean> _notFound;
+
+    NotFoundClientCache(DatabaseClientConfiguration.NotFoundCache configuration)
+    {
+        _notFound = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maxEntries())
+                .expireAfterWrite(Duration.ofSeconds(configuration.timeToLive()))
+                .build();
+    }
+
+    boolean isNotFound(String profileId, String clientId)
+    {
+        return _notFound.getIfPresent(new ClientKey(profileId, clientId)) != null;
+    }
+
+    void recordNotFound(String profileId, String clientId)
+    {
+        _notFound.put(new ClientKey(profileId, clientId), Boolean.TRUE);
+    }
+
+    void recordCreated(String profileId, String clientId)
+    {
+        _notFound.invalidate(new ClientKey(profileId, clientId));
+    }
+
+    private record ClientKey(String profileId, String clientId)
+    {
+    }
+}
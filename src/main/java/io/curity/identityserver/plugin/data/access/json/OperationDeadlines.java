@@ -0,0 +1,226 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.DeadlineConfiguration;
+import se.curity.identityserver.sdk.http.HttpResponse;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the time that the requests of each operation may take, including retries.
+ *
+ * <p>Each attempt of a request that only reads gets the time that remains until the deadline of the operation, after
+ * which it is cancelled and a {@link DeadlineExceededException} is thrown. Such requests are sent again when they fail
+ * or are answered with a 5xx or 429 status, but only as long as the remaining time fits another attempt that takes as
+ * long as the previous one. Requests that were rejected by the {@link BackendGuard} are not retried.
+ *
+ * <p>Other requests are sent on the calling thread and are never abandoned, since the JSON service may still act on
+ * them after the caller was told that they failed. When they complete after their deadline, they are only counted as
+ * missed.
+ */
+final class OperationDeadlines
+{
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final DeadlineConfiguration _configuration;
+    private final LongAdder _missed = new LongAdder();
+    private final LongAdder _retried = new LongAdder();
+
+    OperationDeadlines(DeadlineConfiguration configuration)
+    {
+        _configuration = configuration;
+    }
+
+    HttpResponse send(BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        long budgetMillis = budgetMillis(operation);
+
+        if (budgetMillis <= 0)
+        {
+            return request.get();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        if (!operation.isIdempotent())
+        {
+            return sendAwaiting(deadline, request);
+        }
+
+        int retries = 0;
+
+        while (true)
+        {
+            long startedAt = System.nanoTime();
+            HttpResponse response;
+
+            try
+            {
+                response = sendBefore(deadline, operation, request);
+            }
+            catch (BackendUnavailableException e)
+            {
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                if (!mayRetry(operation, retries, startedAt, deadline))
+                {
+                    throw e;
+                }
+
+                retries++;
+                backOff();
+                continue;
+            }
+
+            boolean failed = response.statusCode() >= 500 || response.statusCode() == TOO_MANY_REQUESTS;
+
+            if (!failed || !mayRetry(operation, retries, startedAt, deadline))
+            {
+                return response;
+            }
+
+            retries++;
+            backOff();
+        }
+    }
+
+    long missedCount()
+    {
+        return _missed.sum();
+    }
+
+    long retriedCount()
+    {
+        return _retried.sum();
+    }
+
+    private HttpResponse sendAwaiting(long deadline, Supplier<HttpResponse> request)
+    {
+        try
+        {
+            return request.get();
+        }
+        finally
+        {
+            if (System.nanoTime() - deadline > 0)
+            {
+                _missed.increment();
+            }
+        }
+    }
+
+    private HttpResponse sendBefore(long deadline, BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        long remainingNanos = deadline - System.nanoTime();
+
+        if (remainingNanos <= 0)
+        {
+            throw missed(operation);
+        }
+
+        Future<HttpResponse> response = BackgroundTasks.executor().submit(request::get);
+
+        try
+        {
+            return response.get(remainingNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            response.cancel(true);
+            throw missed(operation);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException runtimeException)
+            {
+                throw runtimeException;
+            }
+
+            if (e.getCause() instanceof Error error)
+            {
+                throw error;
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BackendUnavailableException("Interrupted while waiting for the request of " + operation +
+                    " to the JSON service");
+        }
+    }
+
+    private boolean mayRetry(BackendOperation operation, int retries, long attemptStartedAt, long deadline)
+    {
+        if (!operation.isIdempotent() || retries >= _configuration.maxRetries())
+        {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long nextAttemptNanos = (now - attemptStartedAt) + TimeUnit.MILLISECONDS.toNanos(_configuration.retryBackoff());
+
+        if (now + nextAttemptNanos >= deadline)
+        {
+            return false;
+        }
+
+        _retried.increment();
+
+        return true;
+    }
+
+    private void backOff()
+    {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(_configuration.retryBackoff()));
+    }
+
+    private DeadlineExceededException missed(BackendOperation operation)
+    {
+        _missed.increment();
+
+        return new DeadlineExceededException("The request of " + operation + " to the JSON service did not " +
+                "complete within " + budgetMillis(operation) + " ms");
+    }
+
+    private long budgetMillis(BackendOperation operation)
+    {
+        return switch (operation)
+        {
+            case VERIFY_PASSWORD -> _configuration.verifyPassword();
+            case UPDATE_PASSWORD -> _configuration.updatePassword();
+            case GET_ATTRIBUTES -> _configuration.getAttributes();
+            case CREATE_CLIENT -> _configuration.createClient();
+            case GET_CLIENT -> _configuration.getClient();
+            case LIST_CLIENTS -> _configuration.listClients();
+            case COUNT_CLIENTS -> _configuration.countClients();
+            case UPDATE_CLIENT -> _configuration.updateClient();
+            case DELETE_CLIENT -> _configuration.deleteClient();
+        };
+    }
+}
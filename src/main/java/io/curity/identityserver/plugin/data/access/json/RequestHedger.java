@@ -0,0 +1,236 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import io.curity.identityserver.plugin.data.access.json.config.HedgingConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.http.HttpResponse;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Sends a second, identical request when the first one takes longer than a percentile of the latency of recent
+ * requests of the same operation, and uses the response that arrives first. The other request is cancelled, which
+ * interrupts it, so that the {@link BackendGuard} does not count it as an outcome. If it still got a response, the
+ * body of that response is closed, so that it does not hold on to a connection.
+ *
+ * <p>So that hedging does not multiply the load on a JSON service that is slow for all requests, each request earns
+ * a fraction of a hedge, up to a small burst, and a request is only hedged if a whole one was earned. Until enough
+ * requests of an operation completed to know their latency, they are not hedged.
+ */
+final class RequestHedger
+{
+    private static final Logger _logger = LoggerFactory.getLogger(RequestHedger.class);
+    private static final long CREDITS_PER_HEDGE = 100;
+    private static final long MAX_CREDITS = 10 * CREDITS_PER_HEDGE;
+
+    private final HedgingConfiguration _configuration;
+    private final Map<BackendOperation, LatencyTracker> _latencies = new ConcurrentHashMap<>();
+    private final AtomicLong _credits = new AtomicLong(0);
+    private final LongAdder _hedged = new LongAdder();
+
+    RequestHedger(HedgingConfiguration configuration)
+    {
+        _configuration = configuration;
+    }
+
+    /**
+     * Make the request, and make it again if the first one is slow.
+     *
+     * @param request makes the request, and may be called twice concurrently
+     */
+    HttpResponse send(BackendOperation operation, Supplier<HttpResponse> request)
+    {
+        LatencyTracker latencies = _latencies.computeIfAbsent(operation,
+                key -> new LatencyTracker(_configuration.delayPercentile()));
+        long percentileNanos = latencies.percentileNanos();
+
+        earnCredits();
+
+        if (percentileNanos < 0)
+        {
+            return timed(latencies, request);
+        }
+
+        long delayNanos = Math.max(percentileNanos, TimeUnit.MILLISECONDS.toNanos(_configuration.minDelay()));
+        CompletableFuture<HttpResponse> first = attempt(latencies, request);
+        @Nullable HttpResponse response = await(operation,
+                first.copy().completeOnTimeout(null, delayNanos, TimeUnit.NANOSECONDS), first);
+
+        if (response != null || !trySpendCredits())
+        {
+            return response != null ? response : await(operation, first, first);
+        }
+
+        _hedged.increment();
+
+        CompletableFuture<HttpResponse> second = attempt(latencies, request);
+
+        return await(operation, firstSuccessful(first, second), first, second);
+    }
+
+    long hedgedCount()
+    {
+        return _hedged.sum();
+    }
+
+    private static CompletableFuture<HttpResponse> attempt(LatencyTracker latencies, Supplier<HttpResponse> request)
+    {
+        return BackgroundTasks.supply(() -> timed(latencies, request), RequestHedger::discard);
+    }
+
+    /**
+     * Wait for the response, and cancel the attempts if the calling thread is interrupted while waiting, e.g.
+     * because the deadline of the operation passed.
+     */
+    @SafeVarargs
+    private static @Nullable HttpResponse await(BackendOperation operation, CompletableFuture<HttpResponse> response,
+                                                CompletableFuture<HttpResponse>... attempts)
+    {
+        try
+        {
+            return response.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException runtimeException)
+            {
+                throw runtimeException;
+            }
+
+            if (e.getCause() instanceof Error error)
+            {
+                throw error;
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            for (CompletableFuture<HttpResponse> attempt : attempts)
+            {
+                attempt.cancel(true);
+            }
+
+            Thread.currentThread().interrupt();
+            throw new BackendUnavailableException("Interrupted while waiting for the request of " + operation +
+                    " to the JSON service");
+        }
+    }
+
+    /**
+     * Close the body of a response that is not used, so that its connection is released.
+     */
+    private static void discard(@Nullable HttpResponse response)
+    {
+        if (response == null)
+        {
+            return;
+        }
+
+        try
+        {
+            response.body(body -> {
+                body.close();
+                return null;
+            });
+        }
+        catch (RuntimeException e)
+        {
+            _logger.debug("Could not close the body of a hedged response that was not used", e);
+        }
+    }
+
+    private static HttpResponse timed(LatencyTracker latencies, Supplier<HttpResponse> request)
+    {
+        long startedAt = System.nanoTime();
+        HttpResponse response = request.get();
+        latencies.record(System.nanoTime() - startedAt);
+
+        return response;
+    }
+
+    /**
+     * @return a future that completes with the first response, or with the failure of the last request if both fail.
+     * The request that did not complete first is cancelled, and a response it still got is discarded.
+     */
+    private static CompletableFuture<HttpResponse> firstSuccessful(CompletableFuture<HttpResponse> first,
+                                                                   CompletableFuture<HttpResponse> second)
+    {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger(0);
+
+        first.whenComplete((response, failure) -> complete(result, failures, response, failure, second));
+        second.whenComplete((response, failure) -> complete(result, failures, response, failure, first));
+
+        return result;
+    }
+
+    private static void complete(CompletableFuture<HttpResponse> result, AtomicInteger failures,
+                                 @Nullable HttpResponse response, @Nullable Throwable failure,
+                                 CompletableFuture<HttpResponse> other)
+    {
+        if (failure != null)
+        {
+            if (failures.incrementAndGet() == 2)
+            {
+                result.completeExceptionally(failure);
+            }
+        }
+        else if (result.complete(response))
+        {
+            other.cancel(true);
+        }
+        else
+        {
+            discard(response);
+        }
+    }
+
+    private void earnCredits()
+    {
+        _credits.getAndUpdate(credits -> Math.min(MAX_CREDITS, credits + _configuration.maxHedgeRate()));
+    }
+
+    private boolean trySpendCredits()
+    {
+        long credits;
+
+        do
+        {
+            credits = _credits.get();
+
+            if (credits < CREDITS_PER_HEDGE)
+            {
+                return false;
+            }
+        }
+        while (!_credits.compareAndSet(credits, credits - CREDITS_PER_HEDGE));
+
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.http.HttpResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The validators of a response, which are sent back in a conditional request to find out if a cached response is
+ * still valid.
+ *
+ * @param etag the value of the ETag header of the response
+ * @param lastModified the value of the Last-Modified header of the response
+ */
+record ResponseValidators(@Nullable String etag, @Nullable String lastModified)
+{
+    static final ResponseValidators NONE = new ResponseValidators(null, null);
+
+    static final int NOT_MODIFIED = 304;
+
+    static ResponseValidators of(HttpResponse response)
+    {
+        return new ResponseValidators(WebUtils.firstHeaderValue(response, "ETag"),
+                WebUtils.firstHeaderValue(response, "Last-Modified"));
+    }
+
+    boolean isEmpty()
+    {
+        return etag == null && lastModified == null;
+    }
+
+    /**
+     * @return the names and values of the headers that make a request conditional on these validators
+     */
+    String[] asConditionalHeaders()
+    {
+        List<String> headers = new ArrayList<>(4);
+
+        if (etag != null)
+        {
+            headers.add("If-None-Match");
+            headers.add(etag);
+        }
+
+        if (lastModified != null)
+        {
+            headers.add("If-Modified-Since");
+            headers.add(lastModified);
+        }
+
+        return headers.toArray(new String[0]);
+    }
+}
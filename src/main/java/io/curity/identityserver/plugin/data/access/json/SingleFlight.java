@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import se.curity.identityserver.sdk.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls with the same key, so that only the first caller makes the call and the callers
+ * that arrive while it is in flight share its result.
+ *
+ * @param <K> the type of the key that identifies identical calls
+ * @param <V> the type of the result of the calls
+ */
+final class SingleFlight<K, V>
+{
+    private final Map<K, CompletableFuture<V>> _inFlight = new ConcurrentHashMap<>();
+    private final LongAdder _coalesced = new LongAdder();
+
+    /**
+     * Make the call, or wait for the result of an identical call that is in flight. If the caller that makes the
+     * call is interrupted, e.g. because its lookup was abandoned, the callers that wait for it make the call
+     * themselves instead of failing with it.
+     *
+     * @param key the key of the call
+     * @param call the call to make if no identical call is in flight
+     * @return the result of the call
+     */
+    V execute(K key, Supplier<V> call)
+    {
+        while (true)
+        {
+            CompletableFuture<V> ownCall = new CompletableFuture<>();
+            @Nullable CompletableFuture<V> inFlightCall = _inFlight.putIfAbsent(key, ownCall);
+
+            if (inFlightCall == null)
+            {
+                return call(key, call, ownCall);
+            }
+
+            _coalesced.increment();
+
+            try
+            {
+                return FutureUtils.join(inFlightCall);
+            }
+            catch (CallAbandonedException e)
+            {
+                // The call is made again, by this caller or another one that waited for the abandoned call
+            }
+        }
+    }
+
+    private V call(K key, Supplier<V> call, CompletableFuture<V> ownCall)
+    {
+        try
+        {
+            V result = call.get();
+            _inFlight.remove(key, ownCall);
+            ownCall.complete(result);
+            return result;
+        }
+        catch (RuntimeException | Error e)
+        {
+            // The call is removed before it completes, so that the callers that make it again don't wait for it
+            _inFlight.remove(key, ownCall);
+            ownCall.completeExceptionally(Thread.currentThread().isInterrupted() || BackendGuard.isAbandoned(e)
+                    ? new CallAbandonedException() : e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of calls that shared the result of an identical call instead of being made
+     */
+    long coalescedCount()
+    {
+        return _coalesced.sum();
+    }
+
+    private static final class CallAbandonedException extends RuntimeException
+    {
+        private CallAbandonedException()
+        {
+            super("The identical call in flight was abandoned", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the calls and failures of the last seconds, in one bucket per second, without locking.
+ *
+ * <p>The bucket of a second is reused for the same second of the next round of the window, and is replaced by an
+ * empty one by the first call of that second. A call that races with the replacement may be counted in the bucket
+ * that is replaced, which is lost, but this is acceptable for a failure rate.
+ */
+final class SlidingWindow
+{
+    private final AtomicReferenceArray<Bucket> _buckets;
+
+    SlidingWindow(int seconds)
+    {
+        _buckets = new AtomicReferenceArray<>(Math.max(seconds, 1));
+    }
+
+    void record(boolean failed)
+    {
+        Bucket bucket = currentBucket(System.currentTimeMillis() / 1000);
+        bucket._calls.incrementAndGet();
+
+        if (failed)
+        {
+            bucket._failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of calls and failures within the window
+     */
+    Counts counts()
+    {
+        long now = System.currentTimeMillis() / 1000;
+        long calls = 0;
+        long failures = 0;
+
+        for (int i = 0; i < _buckets.length(); i++)
+        {
+            Bucket bucket = _buckets.get(i);
+
+            if (bucket != null && now - bucket._second < _buckets.length())
+            {
+                calls += bucket._calls.get();
+                failures += bucket._failures.get();
+            }
+        }
+
+        return new Counts(calls, failures);
+    }
+
+    void reset()
+    {
+        for (int i = 0; i < _buckets.length(); i++)
+        {
+            _buckets.set(i, null);
+        }
+    }
+
+    private Bucket currentBucket(long second)
+    {
+        int index = (int) (second % _buckets.length());
+
+        while (true)
+        {
+            Bucket bucket = _buckets.get(index);
+
+            if (bucket != null && bucket._second == second)
+            {
+                return bucket;
+            }
+
+            Bucket newBucket = new Bucket(second);
+
+            if (_buckets.compareAndSet(index, bucket, newBucket))
+            {
+                return newBucket;
+            }
+        }
+    }
+
+    record Counts(long calls, long failures)
+    {
+        int failureRate()
+        {
+            return calls > 0 ? (int) (failures * 100 / calls) : 0;
+        }
+    }
+
+    private static final class Bucket
+    {
+        private final long _second;
+        private final AtomicLong _calls = new AtomicLong();
+        private final AtomicLong _failures = new AtomicLong();
+
+        private Bucket(long second)
+        {
+            _second = second;
+        }
+    }
+}
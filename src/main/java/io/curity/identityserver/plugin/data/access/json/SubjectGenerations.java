@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts per subject how often its cached data was invalidated, so that data that was requested from the JSON
+ * service before an invalidation is not cached after it.
+ *
+ * <p>Subjects share a fixed number of counters, so that the memory that is used does not grow with the number of
+ * subjects. Subjects that share a counter are only cached less often.
+ */
+final class SubjectGenerations
+{
+    private static final int COUNTERS = 256;
+
+    private final AtomicLongArray _generations = new AtomicLongArray(COUNTERS);
+
+    /**
+     * @return the generation of the subject, which is to be compared with a later one by {@link #isCurrent}
+     */
+    long current(String subject)
+    {
+        return _generations.get(counterOf(subject));
+    }
+
+    boolean isCurrent(String subject, long generation)
+    {
+        return _generations.get(counterOf(subject)) == generation;
+    }
+
+    void advance(String subject)
+    {
+        _generations.incrementAndGet(counterOf(subject));
+    }
+
+    private static int counterOf(String subject)
+    {
+        return Math.floorMod(subject.hashCode(), COUNTERS);
+    }
+}
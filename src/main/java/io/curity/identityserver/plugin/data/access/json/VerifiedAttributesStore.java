@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration;
+import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration;
+import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration;
+import io.curity.identityserver.plugin.data.access.json.config.VerifiedAttributesConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.Attributes;
+import se.curity.identityserver.sdk.plugin.ManagedObject;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands the attributes of a subject whose password was verified over from the credential data access provider to
+ * the attribute data access provider of the same data source, so that the attribute lookup that usually follows a
+ * login does not read them from the JSON service again.
+ *
+ * <p>The store is the managed object of the data source, so its providers share it, and it is closed with them when
+ * the data source is reconfigured or removed. Attributes are only handed over if the attribute lookup would make the
+ * same request as the password verification, i.e. to the same URL path with the subject in it, reading the
+ * attributes at the same response pointer. The attributes of a subject are only kept for a short time and are used
+ * by one lookup at most.
+ */
+public final class VerifiedAttributesStore extends ManagedObject<JsonDataAccessProviderConfiguration>
+{
+    private static final Logger _logger = LoggerFactory.getLogger(VerifiedAttributesStore.class);
+
+    private final @Nullable Cache<String, Attributes> _attributes;
+    private final LongAdder _reused = new LongAdder();
+
+    public VerifiedAttributesStore(JsonDataAccessProviderConfiguration configuration)
+    {
+        super(configuration);
+
+        Optional<VerifiedAttributesConfiguration> reuse = configuration.reuseVerifiedAttributes();
+
+        if (reuse.isPresent() && !isSameRequest(configuration))
+        {
+            _logger.warn("Attributes of verified subjects are not reused by data source {}, because its attribute " +
+                    "lookup is not made to the same URL path, or does not read the same response pointer, as its " +
+                    "password verification", configuration.id());
+        }
+
+        _attributes = reuse.isPresent() && isSameRequest(configuration)
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(reuse.get().maxEntries())
+                        .expireAfterWrite(Duration.ofSeconds(reuse.get().timeToLive()))
+                        .build()
+                : null;
+    }
+
+    /**
+     * @return true if attributes are handed over, which needs to be checked before any other method is called
+     */
+    boolean isEnabled()
+    {
+        return _attributes != null;
+    }
+
+    void put(String subject, Attributes attributes)
+    {
+        _attributes.put(subject, attributes);
+    }
+
+    /**
+     * @return the attributes of the subject, which are removed from the store, or null if its password was not
+     * verified recently
+     */
+    @Nullable
+    Attributes take(String subject)
+    {
+        @Nullable Attributes attributes = _attributes.asMap().remove(subject);
+
+        if (attributes != null)
+        {
+            _reused.increment();
+        }
+
+        return attributes;
+    }
+
+    void invalidate(String subject)
+    {
+        _attributes.invalidate(subject);
+    }
+
+    long reusedCount()
+    {
+        return _reused.sum();
+    }
+
+    @Override
+    public void close()
+    {
+        if (_attributes != null)
+        {
+            _attributes.invalidateAll();
+        }
+    }
+
+    private static boolean isSameRequest(JsonDataAccessProviderConfiguration configuration)
+    {
+        AttributesConfiguration attributes = configuration.getAttributesConfiguration();
+        CredentialAccessConfiguration credentials = configuration.getCredentialAccessConfiguration();
+
+        // Parameter mappings are only sent when the subject is not in the URL path
+        return attributes.provideSubject().urlPath().filter(credentials.urlPath()::equals).isPresent()
+                && attributes.responsePointer().equals(credentials.responsePointer());
+    }
+}
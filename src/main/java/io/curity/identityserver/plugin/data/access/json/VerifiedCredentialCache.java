@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration;
+import se.curity.identityserver.sdk.Nullable;
+import se.curity.identityserver.sdk.attribute.AuthenticationAttributes;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+
+/**
+ * Remembers for a short time the passwords that the JSON service verified, so that repeated logins of the same
+ * user do not result in a request to the JSON service.
+ *
+ * <p>Only a hash of the password is kept, which is salted per entry and derived with PBKDF2, so that the passwords
+ * can't be recovered from memory cheaply. Only successful verifications are remembered, and only when the cached
+ * entry of the user was not invalidated while the password was being verified.
+ */
+final class VerifiedCredentialCache
+{
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 256;
+
+    private final Cache<String, Entry> _verified;
+    private final int _hashIterations;
+    private final SecureRandom _random = new SecureRandom();
+    private final SubjectGenerations _generations = new SubjectGenerations();
+
+    VerifiedCredentialCache(CredentialAccessConfiguration.VerifiedCredentialCache configuration)
+    {
+        _verified = CacheBuilder.newBuilder()
+                .maximumSize(configuration.maxEntries())
+                .expireAfterWrite(Duration.ofSeconds(configuration.timeToLive()))
+                .build();
+        _hashIterations = configuration.hashIterations();
+    }
+
+    /**
+     * @return the attributes of the verification, or null if the password of the user was not verified recently
+     */
+    @Nullable
+    AuthenticationAttributes get(String userName, String password)
+    {
+        @Nullable Entry entry = _verified.getIfPresent(userName);
+
+        if (entry != null && MessageDigest.isEqual(entry.hash(), hash(password, entry.salt())))
+        {
+            return entry.attributes();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the generation of the entry of the user, to be taken before the password is sent to be verified
+     */
+    long generation(String userName)
+    {
+        return _generations.current(userName);
+    }
+
+    /**
+     * Remember the verification, unless the entry of the user was invalidated after the given generation was taken.
+     */
+    void recordVerified(String userName, String password, AuthenticationAttributes attributes, long generation)
+    {
+        if (!_generations.isCurrent(userName, generation))
+        {
+            return;
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        _random.nextBytes(salt);
+        Entry entry = new Entry(salt, hash(password, salt), attributes);
+
+        _verified.put(userName, entry);
+
+        // An invalidation may have run between the check and the put, and then missed the new entry
+        if (!_generations.isCurrent(userName, generation))
+        {
+            _verified.asMap().remove(userName, entry);
+        }
+    }
+
+    void invalidate(String userName)
+    {
+        _generations.advance(userName);
+        _verified.invalidate(userName);
+    }
+
+    private byte[] hash(String password, byte[] salt)
+    {
+        PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, _hashIterations, HASH_LENGTH);
+
+        try
+        {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(keySpec).getEncoded();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException("Could not hash the password with " + HASH_ALGORITHM, e);
+        }
+        finally
+        {
+            keySpec.clearPassword();
+        }
+    }
+
+    private record Entry(byte[] salt, byte[] hash, AuthenticationAttributes attributes)
+    {
+    }
+}
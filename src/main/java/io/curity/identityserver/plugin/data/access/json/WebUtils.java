@@ -18,13 +18,22 @@ package io.curity.identityserver.plugin.data.access.json;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import se.curity.identityserver.sdk.Nullable;
 import se.curity.identityserver.sdk.http.HttpResponse;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -48,37 +57,6 @@ final class WebUtils
         }
     }
 
-    static String urlEncodedFormData(Map<String, String> formParameters)
-    {
-        StringBuilder stringBuilder = new StringBuilder();
-
-        boolean first = true;
-
-        for (Map.Entry<String, String> entry : formParameters.entrySet())
-        {
-            if (!first)
-            {
-                stringBuilder.append("&");
-            }
-            else
-            {
-                first = false;
-            }
-            try
-            {
-                stringBuilder.append(URLEncoder.encode(entry.getKey(), "UTF-8"))
-                        .append("=")
-                        .append(URLEncoder.encode(entry.getValue(), "UTF-8"));
-            }
-            catch (UnsupportedEncodingException e)
-            {
-                throw new IllegalStateException("Unable to encode form data using UTF-8");
-            }
-        }
-
-        return stringBuilder.toString();
-    }
-
     static boolean isSuccessfulJsonResponse(HttpResponse response)
     {
         List<String> contentTypes = response.headers().allValues("Content-Type");
@@ -102,6 +80,14 @@ final class WebUtils
         return hasSuccessStatusCode(response);
     }
 
+    @Nullable
+    static String firstHeaderValue(HttpResponse response, String headerName)
+    {
+        List<String> values = response.headers().allValues(headerName);
+
+        return values.isEmpty() ? null : values.get(0);
+    }
+
     static boolean hasSuccessStatusCode(HttpResponse response)
     {
         return response.statusCode() >= 200
@@ -119,4 +105,161 @@ final class WebUtils
                 .contains(JsonClientRequestContentType.APPLICATION_JSON.toString());
 
     }
+
+    /**
+     * Read the JSON body of the response while it is received, without first reading it into a String.
+     *
+     * @param response the response to read the body of
+     * @param bodyReader the reader that consumes the JSON tokens of the body
+     * @return the result of the body reader
+     * @throws UncheckedIOException if the body could not be read or is not valid JSON
+     */
+    static <T> T readJsonBody(HttpResponse response, JsonBodyReader<T> bodyReader)
+    {
+        return readJsonBody(response, Long.MAX_VALUE, bodyReader);
+    }
+
+    /**
+     * Read the JSON body of the response while it is received, failing as soon as more than the given number of
+     * bytes have been received.
+     *
+     * @param response the response to read the body of
+     * @param maxBytes the maximum number of bytes of the body
+     * @param bodyReader the reader that consumes the JSON tokens of the body
+     * @return the result of the body reader
+     * @throws UncheckedIOException if the body could not be read, is not valid JSON or is too large
+     */
+    static <T> T readJsonBody(HttpResponse response, long maxBytes, JsonBodyReader<T> bodyReader)
+    {
+        return response.body(body -> {
+            InputStream boundedBody = maxBytes == Long.MAX_VALUE ? body : new BoundedInputStream(body, maxBytes);
+
+            try (JsonStreamReader jsonReader = new JsonStreamReader(new InputStreamReader(boundedBody, StandardCharsets.UTF_8)))
+            {
+                return bodyReader.read(jsonReader);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Read the JSON object in the body of the response while it is received, keeping only the given fields. The
+     * values before the object that the pointer refers to, and the values of all other fields, are skipped without
+     * materializing them.
+     *
+     * @param response the response to read the body of
+     * @param pointer the pointer to the object in the body, or null for the body itself
+     * @param fields the names of the fields of the object to keep, or null to keep all fields
+     * @return the object, or null if the body is empty
+     * @throws UncheckedIOException if the body could not be read, or has no JSON object where the pointer refers to
+     */
+    @Nullable
+    static Map<String, Object> readJsonObjectBody(HttpResponse response, @Nullable JsonPointer pointer,
+                                                  @Nullable Set<String> fields)
+    {
+        return readJsonBody(response, reader -> {
+            if (reader.peek() == JsonStreamReader.Token.END_DOCUMENT)
+            {
+                return null;
+            }
+
+            if (pointer != null && !pointer.seek(reader))
+            {
+                throw new IOException("No value at JSON pointer " + pointer);
+            }
+
+            JsonStreamReader.Token token = reader.peek();
+
+            if (token != JsonStreamReader.Token.BEGIN_OBJECT)
+            {
+                throw new IOException("Expected a JSON object but was " + token);
+            }
+
+            Map<String, Object> object = new LinkedHashMap<>();
+            reader.beginObject();
+
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+
+                if (fields == null || fields.contains(name))
+                {
+                    object.put(name, reader.nextValue());
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+
+            // The rest of the document, after the object, is not read
+            return object;
+        });
+    }
+
+    @FunctionalInterface
+    interface JsonBodyReader<T>
+    {
+        T read(JsonStreamReader reader) throws IOException;
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream
+    {
+        private final long _maxBytes;
+        private long _bytesRead = 0;
+
+        private BoundedInputStream(InputStream in, long maxBytes)
+        {
+            super(in);
+            _maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int read = super.read();
+
+            if (read != -1)
+            {
+                count(1);
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException
+        {
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0)
+            {
+                count(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count(skipped);
+
+            return skipped;
+        }
+
+        private void count(long bytes) throws IOException
+        {
+            _bytesRead += bytes;
+
+            if (_bytesRead > _maxBytes)
+            {
+                throw new IOException("Response body exceeds the maximum size of " + _maxBytes + " bytes");
+            }
+        }
+    }
 }
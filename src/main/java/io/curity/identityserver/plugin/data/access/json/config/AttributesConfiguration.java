@@ -19,6 +19,7 @@ package io.curity.identityserver.plugin.data.access.json.config;
 import se.curity.identityserver.sdk.config.Configuration;
 import se.curity.identityserver.sdk.config.OneOf;
 import se.curity.identityserver.sdk.config.annotation.DefaultEnum;
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
 import se.curity.identityserver.sdk.config.annotation.DefaultOption;
 import se.curity.identityserver.sdk.config.annotation.DefaultString;
 import se.curity.identityserver.sdk.config.annotation.Description;
@@ -36,6 +37,66 @@ public interface AttributesConfiguration
             + "Defaults to substituting the subject in the url-path.")
     ProvideSubject provideSubject();
 
+    @Description("Keep the attributes that were read in memory, together with the ETag and Last-Modified headers "
+            + "of the response, so that they are revalidated with a conditional request. If the JSON service "
+            + "reports that they were not modified, the cached attributes are used without reading them again. "
+            + "Attributes may also be used for a while without revalidating them, and when the JSON service fails.")
+    Optional<AttributeCache> attributeCache();
+
+    @Description("The maximum number of subjects whose attributes are requested at once, when the attributes of "
+            + "many subjects are looked up in bulk.")
+    @DefaultInteger(8)
+    int bulkLookupParallelism();
+
+    interface AttributeCache
+    {
+        @Description("The maximum number of responses that are kept in the cache.")
+        @DefaultInteger(10000)
+        int maxEntries();
+
+        @Description("The number of seconds a response with an ETag or Last-Modified header is kept to be "
+                + "revalidated.")
+        @DefaultInteger(3600)
+        int revalidationPeriod();
+
+        @Description("The number of seconds cached attributes are used without making a request. With 0, they are "
+                + "revalidated on every lookup. Responses without an ETag or Last-Modified header are only cached "
+                + "if this is set.")
+        @DefaultInteger(0)
+        int timeToLive();
+
+        @Description("The number of seconds after the time-to-live in which cached attributes are still used, while "
+                + "they are read again in the background.")
+        @DefaultInteger(0)
+        int staleWhileRevalidate();
+
+        @Description("The number of seconds after the time-to-live in which cached attributes are used when the JSON "
+                + "service fails.")
+        @DefaultInteger(0)
+        int staleIfError();
+    }
+
+    @Description("A JSON pointer, such as /data/user, to the object in the response that holds the attributes, "
+            + "for JSON services that wrap them in an envelope. The rest of the response is skipped while it is read. "
+            + "Defaults to the whole response.")
+    Optional<String> responsePointer();
+
+    @Description("Only read the listed attributes of the subject. The names of the attributes are sent to the JSON "
+            + "service in a query parameter, so that it may leave out the others, and any other attributes in the "
+            + "response are skipped while it is read.")
+    Optional<Projection> projection();
+
+    interface Projection
+    {
+        @Description("The names of the top-level attributes to read.")
+        List<String> attribute();
+
+        @Description("The name of the query parameter with the comma-separated names of the attributes. "
+                + "Defaults to 'fields'.")
+        @DefaultString("fields")
+        String queryParameter();
+    }
+
     interface ParameterMappings
     {
         @Description("Specifies a parameter name and how to get the value for it.")
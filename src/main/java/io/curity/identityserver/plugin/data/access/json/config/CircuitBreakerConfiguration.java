@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2017 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json.config;
+
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.Description;
+
+public interface CircuitBreakerConfiguration
+{
+    @Description("The percentage of failed requests of an operation within the sliding window at which requests of "
+            + "that operation are no longer sent to the JSON service. Requests that fail, are answered with a 5xx "
+            + "or 429 status, or take longer than the slow-call-duration count as failed.")
+    @DefaultInteger(50)
+    int failureRateThreshold();
+
+    @Description("The number of milliseconds after which a request counts as failed, even if it succeeds.")
+    @DefaultInteger(5000)
+    int slowCallDuration();
+
+    @Description("The number of seconds of requests of which the failure rate is calculated.")
+    @DefaultInteger(10)
+    int slidingWindow();
+
+    @Description("The minimum number of requests within the sliding window before the failure rate is considered.")
+    @DefaultInteger(20)
+    int minimumCalls();
+
+    @Description("The number of seconds during which requests are not sent to the JSON service, after which a few "
+            + "trial requests are sent to find out if the JSON service recovered.")
+    @DefaultInteger(30)
+    int openDuration();
+
+    @Description("The number of trial requests that need to succeed before all requests are sent to the JSON "
+            + "service again. If any of them fails, requests are not sent for another open-duration.")
+    @DefaultInteger(5)
+    int halfOpenCalls();
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json.config;
+
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.Description;
+
+public interface ConcurrencyLimitConfiguration
+{
+    @Description("The number of concurrent requests to the JSON service that are allowed at first.")
+    @DefaultInteger(20)
+    int initialLimit();
+
+    @Description("The lowest number of concurrent requests the limit is decreased to.")
+    @DefaultInteger(1)
+    int minLimit();
+
+    @Description("The highest number of concurrent requests the limit is increased to.")
+    @DefaultInteger(200)
+    int maxLimit();
+
+    @Description("How much slower than the fastest recent requests of the same operation, in percent, a request may "
+            + "be before the limit is decreased. E.g. 200 decreases the limit when requests take more than twice "
+            + "as long.")
+    @DefaultInteger(200)
+    int latencyTolerance();
+
+    @Description("The number of milliseconds a request waits for another request to complete when the limit is "
+            + "reached, before it fails. With 0, it fails right away.")
+    @DefaultInteger(0)
+    int maxWait();
+}
@@ -18,9 +18,12 @@ package io.curity.identityserver.plugin.data.access.json.config;
 
 import se.curity.identityserver.sdk.config.annotation.DefaultBoolean;
 import se.curity.identityserver.sdk.config.annotation.DefaultEnum;
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
 import se.curity.identityserver.sdk.config.annotation.DefaultString;
 import se.curity.identityserver.sdk.config.annotation.Description;
 
+import java.util.Optional;
+
 public interface CredentialAccessConfiguration
 {
 
@@ -50,6 +53,50 @@ public interface CredentialAccessConfiguration
     @DefaultString("/")
     String urlPath();
 
+    @Description("A JSON pointer, such as /data/user, to the object in the response that holds the attributes "
+            + "of the account, for backends that wrap them in an envelope. The rest of the response is skipped while "
+            + "it is read. Defaults to the whole response.")
+    Optional<String> responsePointer();
+
+    @Description("Remember for a short time the passwords that the backend verified, so that repeated logins of "
+            + "the same user do not result in a request to the backend. Only a salted hash of the password is kept, "
+            + "and failed verifications are never remembered. Only used if the backend verifies the password.")
+    Optional<VerifiedCredentialCache> verifiedCredentialCache();
+
+    @Description("Remember for a short time the account records that the backend returned, so that repeated logins "
+            + "of the same user are verified against the remembered record without a request to the backend. "
+            + "Only used if the backend does not verify the password, and the url-path does not contain the "
+            + ":password placeholder.")
+    Optional<AccountRecordCache> accountRecordCache();
+
+    interface VerifiedCredentialCache
+    {
+        @Description("The number of seconds a verified password is remembered. A password that was changed "
+                + "outside of this data source keeps working for at most this long.")
+        @DefaultInteger(30)
+        int timeToLive();
+
+        @Description("The maximum number of users whose verified password is remembered.")
+        @DefaultInteger(10000)
+        int maxEntries();
+
+        @Description("The number of PBKDF2 iterations used to hash a password before it is remembered or compared.")
+        @DefaultInteger(10000)
+        int hashIterations();
+    }
+
+    interface AccountRecordCache
+    {
+        @Description("The number of seconds an account record is remembered. A password that was changed outside "
+                + "of this data source keeps working for at most this long.")
+        @DefaultInteger(30)
+        int timeToLive();
+
+        @Description("The maximum number of account records that are remembered.")
+        @DefaultInteger(10000)
+        int maxEntries();
+    }
+
     enum SubmitAs
     {
         @Description("POST the data and encode the data using 'application/json' content-type")
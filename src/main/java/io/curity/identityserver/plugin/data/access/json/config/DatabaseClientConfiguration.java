@@ -16,12 +16,158 @@
 
 package io.curity.identityserver.plugin.data.access.json.config;
 
+import se.curity.identityserver.sdk.config.annotation.DefaultBoolean;
+import se.curity.identityserver.sdk.config.annotation.DefaultEnum;
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
 import se.curity.identityserver.sdk.config.annotation.DefaultString;
 import se.curity.identityserver.sdk.config.annotation.Description;
 
+import java.util.Optional;
+
 public interface DatabaseClientConfiguration
 {
     @Description("The path relative to the webservice context to make the requests to the database clients endpoint")
     @DefaultString("/")
     String urlPath();
+
+    @Description("How the number of database clients is requested from the JSON service. "
+            + "Defaults to count-endpoint.")
+    @DefaultEnum("COUNT_ENDPOINT")
+    CountUsing countUsing();
+
+    @Description("The maximum size in bytes of a page of database clients that is received from the JSON service. "
+            + "Larger responses are rejected while they are read.")
+    @DefaultInteger(16777216)
+    int maxPageSize();
+
+    @Description("When a page of database clients is listed that has a next page, request the next page in the "
+            + "background, so that it is available when the clients are paged forward.")
+    @DefaultBoolean(false)
+    boolean prefetchNextPage();
+
+    @Description("Keep database clients that were read by id in memory, so that repeated lookups of the same "
+            + "client do not result in a request to the JSON service. Clients that are created, updated or "
+            + "deleted through this data source are removed from the cache.")
+    Optional<ClientCache> clientCache();
+
+    @Description("Remember for a short time which database clients the JSON service reported as not found, so that "
+            + "repeated lookups of unknown client ids do not result in a request to the JSON service. Clients that "
+            + "are created through this data source are removed right away.")
+    Optional<NotFoundCache> notFoundCache();
+
+    @Description("Keep a Bloom filter of the ids of all database clients of each profile, built from the list of "
+            + "clients, so that lookups of client ids that are definitely not present are answered without a "
+            + "request to the JSON service. Clients that are created outside of this data source are only known "
+            + "after the filter was rebuilt, so they may be answered as not present for up to absent-time-to-live "
+            + "seconds.")
+    Optional<KnownClientIdFilter> knownClientIdFilter();
+
+    @Description("Combine lookups of database clients by id that arrive within a short time into one request for "
+            + "all of them, made to the url-path with the ids of the clients as a comma-separated ids query "
+            + "parameter. Lookups that revalidate a cached client are not combined.")
+    Optional<LookupBatching> lookupBatching();
+
+    @Description("Keep a replica of all database clients of each profile in memory, so that clients are read, "
+            + "listed and counted without a request to the JSON service. The replica is kept up to date by listing "
+            + "the clients with a changed_since query parameter, which holds the time of the previous update. "
+            + "Changes are written to the JSON service as usual.")
+    Optional<ClientReplica> clientReplica();
+
+    interface ClientCache
+    {
+        @Description("The number of seconds a database client is kept in the cache after it was read.")
+        @DefaultInteger(60)
+        int timeToLive();
+
+        @Description("The maximum number of database clients that are kept in the cache.")
+        @DefaultInteger(10000)
+        int maxEntries();
+
+        @Description("The number of seconds after the time to live during which an expired database client is "
+                + "kept, so that it can be revalidated with a conditional request using the ETag and Last-Modified "
+                + "headers of the response it was read from. If the JSON service reports that it was not modified, "
+                + "the cached client is used again without reading it.")
+        @DefaultInteger(3600)
+        int revalidationPeriod();
+    }
+
+    interface ClientReplica
+    {
+        @Description("The number of seconds after which the clients that changed are requested again.")
+        @DefaultInteger(30)
+        int refreshInterval();
+
+        @Description("The number of seconds after which all clients are requested again, so that clients that were "
+                + "deleted outside of this data source are removed from the replica. The JSON service can also "
+                + "report deleted clients as changed, with a deleted field that is true.")
+        @DefaultInteger(3600)
+        int reloadInterval();
+
+        @Description("The maximum number of clients of a profile that are kept in memory. The clients of profiles "
+                + "with more clients are requested from the JSON service instead.")
+        @DefaultInteger(10000)
+        int maxClients();
+
+        @Description("The number of seconds the replica is still used after its last successful update, while it "
+                + "can't be updated. After that, clients are requested from the JSON service until an update succeeds. "
+                + "0 to use the replica until then.")
+        @DefaultInteger(300)
+        int maxStaleness();
+    }
+
+    interface LookupBatching
+    {
+        @Description("The maximum number of milliseconds the first lookup of a batch waits for other lookups to "
+                + "join the batch.")
+        @DefaultInteger(2)
+        int maxWait();
+
+        @Description("The maximum number of clients that are requested in one batch. A batch is requested as soon "
+                + "as it is full.")
+        @DefaultInteger(50)
+        int maxBatchSize();
+    }
+
+    interface NotFoundCache
+    {
+        @Description("The number of seconds a client id that was not found is remembered.")
+        @DefaultInteger(10)
+        int timeToLive();
+
+        @Description("The maximum number of client ids that were not found that are remembered.")
+        @DefaultInteger(10000)
+        int maxEntries();
+    }
+
+    interface KnownClientIdFilter
+    {
+        @Description("The number of seconds after which the filter of a profile is rebuilt from the list of clients. "
+                + "This should be shorter than the absent-time-to-live, so that a new filter is built before the "
+                + "previous one stops answering.")
+        @DefaultInteger(30)
+        int rebuildInterval();
+
+        @Description("The number of clients per profile the filter is sized for. The filter answers less often "
+                + "that a client is definitely not present if a profile has more clients than this.")
+        @DefaultInteger(100000)
+        int expectedClients();
+
+        @Description("The number of seconds after the filter of a profile was built that a client id which is not in "
+                + "the filter is answered as not present. A client created outside of this data source in that time "
+                + "is not found until it has passed. After that, such clients are requested from the JSON service "
+                + "until the filter is rebuilt. 0 to answer from the filter until it is rebuilt.")
+        @DefaultInteger(60)
+        int absentTimeToLive();
+    }
+
+    enum CountUsing
+    {
+        @Description("Request the number of clients from the count endpoint, i.e. the url-path followed by '/count', "
+                + "which responds with a number. If the JSON service does not provide that endpoint, the clients "
+                + "are listed and counted instead.")
+        COUNT_ENDPOINT,
+
+        @Description("List the clients and count them while the response is read, without keeping them in memory.")
+        LIST_ENDPOINT
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json.config;
+
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.Description;
+
+public interface DeadlineConfiguration
+{
+    @Description("The number of milliseconds within which a password needs to be verified. A request that "
+            + "is late is not abandoned, only counted as missed. 0 for no deadline.")
+    @DefaultInteger(3000)
+    int verifyPassword();
+
+    @Description("The number of milliseconds within which a password needs to be updated. A request that "
+            + "is late is not abandoned, only counted as missed. 0 for no deadline.")
+    @DefaultInteger(10000)
+    int updatePassword();
+
+    @Description("The number of milliseconds within which attributes need to be read. 0 for no deadline.")
+    @DefaultInteger(2000)
+    int getAttributes();
+
+    @Description("The number of milliseconds within which a database client needs to be read. 0 for no deadline.")
+    @DefaultInteger(2000)
+    int getClient();
+
+    @Description("The number of milliseconds within which a page of database clients needs to be listed. 0 for no "
+            + "deadline.")
+    @DefaultInteger(10000)
+    int listClients();
+
+    @Description("The number of milliseconds within which database clients need to be counted. 0 for no deadline.")
+    @DefaultInteger(5000)
+    int countClients();
+
+    @Description("The number of milliseconds within which a database client needs to be created. A request that "
+            + "is late is not abandoned, only counted as missed. 0 for no deadline.")
+    @DefaultInteger(10000)
+    int createClient();
+
+    @Description("The number of milliseconds within which a database client needs to be updated. A request that "
+            + "is late is not abandoned, only counted as missed. 0 for no deadline.")
+    @DefaultInteger(10000)
+    int updateClient();
+
+    @Description("The number of milliseconds within which a database client needs to be deleted. A request that "
+            + "is late is not abandoned, only counted as missed. 0 for no deadline.")
+    @DefaultInteger(10000)
+    int deleteClient();
+
+    @Description("The most times a request that only reads is sent again when it failed, as long as the remaining "
+            + "time before the deadline fits another attempt.")
+    @DefaultInteger(2)
+    int maxRetries();
+
+    @Description("The number of milliseconds to wait before a request is sent again.")
+    @DefaultInteger(20)
+    int retryBackoff();
+}
@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json.config;
+
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.Description;
+
+public interface HedgingConfiguration
+{
+    @Description("The percentile of the latency of recent requests after which a second request is sent, if the "
+            + "first one did not complete yet.")
+    @DefaultInteger(95)
+    int delayPercentile();
+
+    @Description("The lowest number of milliseconds to wait for the first request before a second one is sent.")
+    @DefaultInteger(5)
+    int minDelay();
+
+    @Description("The most requests that may be sent a second time, in percent of all hedgeable requests.")
+    @DefaultInteger(5)
+    int maxHedgeRate();
+}
@@ -17,10 +17,13 @@
 package io.curity.identityserver.plugin.data.access.json.config;
 
 import se.curity.identityserver.sdk.config.Configuration;
+import se.curity.identityserver.sdk.config.annotation.Description;
 import se.curity.identityserver.sdk.config.annotation.Name;
 import se.curity.identityserver.sdk.service.Json;
 import se.curity.identityserver.sdk.service.WebServiceClient;
 
+import java.util.Optional;
+
 public interface JsonDataAccessProviderConfiguration extends Configuration
 {
 
@@ -37,4 +40,28 @@ public interface JsonDataAccessProviderConfiguration extends Configuration
     @Name("database-clients")
     DatabaseClientConfiguration getDatabaseClientConfiguration();
 
+    @Description("Stop sending the requests of an operation to the JSON service for a while when too many of them "
+            + "failed, so that they fail right away instead of waiting for the JSON service. Where a cache is "
+            + "configured, cached data is used instead, even if it expired.")
+    Optional<CircuitBreakerConfiguration> circuitBreaker();
+
+    @Description("Limit the number of concurrent requests to the JSON service, adapting the limit to the latency of "
+            + "the requests. The limit is increased while requests are as fast as the fastest recent ones, and "
+            + "decreased when they slow down or fail, so that requests queue up here instead of in the JSON service.")
+    Optional<ConcurrencyLimitConfiguration> concurrencyLimit();
+
+    @Description("Send a second, identical request to the JSON service when a request that reads attributes or a "
+            + "database client takes longer than most recent ones, and use the response that arrives first.")
+    Optional<HedgingConfiguration> hedging();
+
+    @Description("Give up on the requests of each operation to the JSON service after a deadline, and retry requests "
+            + "that only read while the deadline leaves time for another attempt.")
+    Optional<DeadlineConfiguration> deadlines();
+
+    @Description("Keep the attributes that the JSON service returned when the password of a subject was verified, "
+            + "and use them for the next attribute lookup of that subject, instead of reading them again. They are only "
+            + "used if the attribute lookup has the subject in the same URL path as the password verification, and "
+            + "reads the same response pointer.")
+    Optional<VerifiedAttributesConfiguration> reuseVerifiedAttributes();
+
 }
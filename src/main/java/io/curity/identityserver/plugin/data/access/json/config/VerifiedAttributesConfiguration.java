@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json.config;
+
+import se.curity.identityserver.sdk.config.annotation.DefaultInteger;
+import se.curity.identityserver.sdk.config.annotation.Description;
+
+public interface VerifiedAttributesConfiguration
+{
+    @Description("The number of seconds the attributes of a verified subject are kept for the next attribute lookup.")
+    @DefaultInteger(10)
+    int timeToLive();
+
+    @Description("The maximum number of subjects whose attributes are kept.")
+    @DefaultInteger(10000)
+    int maxEntries();
+}
@@ -19,16 +19,18 @@ package io.curity.identityserver.plugin.descriptor;
 import io.curity.identityserver.plugin.data.access.json.JsonAttributeDataAccessProvider;
 import io.curity.identityserver.plugin.data.access.json.JsonCredentialDataAccessProvider;
 import io.curity.identityserver.plugin.data.access.json.JsonDatabaseClientDataAccessProvider;
+import io.curity.identityserver.plugin.data.access.json.VerifiedAttributesStore;
 import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration;
 import se.curity.identityserver.sdk.Nullable;
-import se.curity.identityserver.sdk.config.Configuration;
 import se.curity.identityserver.sdk.datasource.AttributeDataAccessProvider;
 import se.curity.identityserver.sdk.datasource.CredentialDataAccessProvider;
 import se.curity.identityserver.sdk.datasource.DatabaseClientDataAccessProvider;
 import se.curity.identityserver.sdk.plugin.descriptor.DataAccessProviderPluginDescriptor;
 
+import java.util.Optional;
+
 @SuppressWarnings("unused")
-public class JsonDataAccessPluginDescriptor implements DataAccessProviderPluginDescriptor<Configuration>
+public class JsonDataAccessPluginDescriptor implements DataAccessProviderPluginDescriptor<JsonDataAccessProviderConfiguration>
 {
     @Override
     public String getPluginImplementationType()
@@ -37,7 +39,7 @@ public class JsonDataAccessPluginDescriptor implements DataAccessProviderPluginD
     }
 
     @Override
-    public Class<? extends Configuration> getConfigurationType()
+    public Class<? extends JsonDataAccessProviderConfiguration> getConfigurationType()
     {
         return JsonDataAccessProviderConfiguration.class;
     }
@@ -61,4 +63,10 @@ public class JsonDataAccessPluginDescriptor implements DataAccessProviderPluginD
     {
         return JsonDatabaseClientDataAccessProvider.class;
     }
-}
\ No newline at end of file
+
+    @Override
+    public Optional<VerifiedAttributesStore> createManagedObject(JsonDataAccessProviderConfiguration configuration)
+    {
+        return Optional.of(new VerifiedAttributesStore(configuration));
+    }
+}
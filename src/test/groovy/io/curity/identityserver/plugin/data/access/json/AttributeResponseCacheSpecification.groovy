@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration
+import se.curity.identityserver.sdk.attribute.AttributeTableView
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class AttributeResponseCacheSpecification extends Specification {
+
+    def request = new AttributeRequest('/users/alice', [] as String[], [] as String[])
+    def attributes = AttributeTableView.of([[name: 'Alice']])
+    def validators = new ResponseValidators('"v1"', null)
+
+    def "Attributes are used without a request within their time to live"() {
+        given:
+        def cache = newCache(60, 0, 0)
+        def loads = new AtomicInteger()
+
+        when:
+        def first = cache.get(request, { key, cached ->
+            loads.incrementAndGet()
+            new AttributeResponseCache.Entry(attributes, ResponseValidators.NONE)
+        })
+        def second = cache.get(request, { key, cached -> throw new IllegalStateException('not expected') })
+
+        then:
+        first.is(attributes)
+        second.is(attributes)
+        loads.get() == 1
+        cache.stats().hitRatio() == 0.5
+    }
+
+    def "Stale attributes are used while they are read again in the background"() {
+        given:
+        def cache = newCache(0, 60, 0)
+        cache.get(request, { key, cached -> new AttributeResponseCache.Entry(attributes, validators) })
+        def refreshedWith = null
+
+        when:
+        def stale = cache.get(request, { key, cached ->
+            refreshedWith = cached
+            cached
+        })
+
+        then:
+        stale.is(attributes)
+        new PollingConditions(timeout: 5).eventually {
+            assert refreshedWith?.validators() == validators
+        }
+        cache.stats().staleServed() == 1
+        cache.stats().refreshes() == 1
+    }
+
+    def "Stale attributes are used when the JSON service fails"() {
+        given:
+        def cache = newCache(0, 0, 60)
+        cache.get(request, { key, cached -> new AttributeResponseCache.Entry(attributes, validators) })
+
+        when:
+        def failedWithException = cache.get(request, { key, cached -> throw new RuntimeException('down') })
+        def failedWithServerError = cache.get(request, { key, cached ->
+            new AttributeResponseCache.Entry(AttributeTableView.empty(), ResponseValidators.NONE, true)
+        })
+
+        then:
+        failedWithException.is(attributes)
+        failedWithServerError.is(attributes)
+        cache.stats().staleServed() == 2
+    }
+
+    def "A failure is not hidden when there is no stale-if-error window"() {
+        given:
+        def cache = newCache(0, 0, 0)
+        cache.get(request, { key, cached -> new AttributeResponseCache.Entry(attributes, validators) })
+
+        when:
+        cache.get(request, { key, cached -> throw new RuntimeException('down') })
+
+        then:
+        thrown(RuntimeException)
+    }
+
+    def "Rejected requests are not hidden outside of the stale-if-error window"() {
+        given:
+        def cache = newCache(0, 0, 0)
+        cache.get(request, { key, cached -> new AttributeResponseCache.Entry(attributes, validators) })
+
+        when:
+        cache.get(request, { key, cached -> throw exception })
+
+        then:
+        thrown(BackendUnavailableException)
+
+        where:
+        exception << [new BackendUnavailableException('rejected'), new DeadlineExceededException('too slow')]
+    }
+
+    private AttributeResponseCache newCache(int freshSeconds, int staleWhileRevalidateSeconds, int staleIfErrorSeconds) {
+        new AttributeResponseCache(Stub(AttributesConfiguration.AttributeCache) {
+            maxEntries() >> 10
+            revalidationPeriod() >> 60
+            timeToLive() >> freshSeconds
+            staleWhileRevalidate() >> staleWhileRevalidateSeconds
+            staleIfError() >> staleIfErrorSeconds
+        })
+    }
+}
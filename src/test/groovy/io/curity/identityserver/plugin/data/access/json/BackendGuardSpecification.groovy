@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.CircuitBreakerConfiguration
+import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration
+import se.curity.identityserver.sdk.http.HttpResponse
+import spock.lang.Specification
+
+class BackendGuardSpecification extends Specification {
+
+    def "There are no circuit breaker states when no circuit breaker is configured"() {
+        given:
+        def backendGuard = new BackendGuard(Mock(JsonDataAccessProviderConfiguration,
+                defaultResponse: OptionalFeaturesDisabled.INSTANCE))
+
+        when:
+        backendGuard.send(BackendOperation.GET_CLIENT, { Stub(HttpResponse) { statusCode() >> 200 } })
+
+        then:
+        backendGuard.circuitBreakerStates() == [:]
+    }
+
+    def "The circuit breaker states are those of the operations that were requested"() {
+        given: 'a backend guard with circuit breakers configured'
+        def backendGuard = new BackendGuard(Mock(JsonDataAccessProviderConfiguration,
+                defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            circuitBreaker() >> Optional.of(Stub(CircuitBreakerConfiguration) {
+                failureRateThreshold() >> 50
+                slowCallDuration() >> 10000
+                slidingWindow() >> 10
+                minimumCalls() >> 4
+                openDuration() >> 30
+                halfOpenCalls() >> 2
+            })
+        })
+
+        expect: 'no states before the first request'
+        backendGuard.circuitBreakerStates() == [:]
+
+        when: 'a client is requested'
+        backendGuard.send(BackendOperation.GET_CLIENT, { Stub(HttpResponse) { statusCode() >> 200 } })
+
+        then: 'the state of its circuit breaker is returned'
+        backendGuard.circuitBreakerStates() == [GET_CLIENT: 'CLOSED']
+    }
+}
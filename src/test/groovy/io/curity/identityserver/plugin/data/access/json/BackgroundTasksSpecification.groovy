@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class BackgroundTasksSpecification extends Specification {
+
+    def "A task runs on a virtual thread and completes the future with its result"() {
+        when:
+        def result = BackgroundTasks.supply({ Thread.currentThread().isVirtual() }).get(5, TimeUnit.SECONDS)
+
+        then:
+        result
+    }
+
+    def "The exception of a task is rethrown as it was thrown"() {
+        given:
+        def future = BackgroundTasks.supply({ throw new BackendUnavailableException('unavailable') })
+
+        when:
+        FutureUtils.join(future)
+
+        then:
+        thrown(BackendUnavailableException)
+    }
+
+    def "A task is interrupted when its future is cancelled"() {
+        given:
+        def started = new CountDownLatch(1)
+        def interrupted = new CountDownLatch(1)
+        def future = BackgroundTasks.supply({
+            started.countDown()
+            try {
+                Thread.sleep(10_000)
+            } catch (InterruptedException ignored) {
+                interrupted.countDown()
+            }
+            'done'
+        })
+        started.await(5, TimeUnit.SECONDS)
+
+        when:
+        future.cancel(true)
+
+        then:
+        interrupted.await(5, TimeUnit.SECONDS)
+    }
+
+    def "A task is interrupted when its future times out"() {
+        given:
+        def interrupted = new CountDownLatch(1)
+
+        when:
+        BackgroundTasks.supply({
+            try {
+                Thread.sleep(10_000)
+            } catch (InterruptedException ignored) {
+                interrupted.countDown()
+            }
+            'done'
+        }).orTimeout(50, TimeUnit.MILLISECONDS).join()
+
+        then:
+        def e = thrown(Exception)
+        e.cause instanceof TimeoutException
+        interrupted.await(5, TimeUnit.SECONDS)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BulkLookupSpecification extends Specification {
+
+    def "The results are in the order of the keys, however long each lookup takes"() {
+        when:
+        def results = BulkLookup.stream((1..20).iterator(), 4, { int key ->
+            Thread.sleep((20 - key) * 5)
+            key * 2
+        }).toList()
+
+        then:
+        results == (1..20).collect { it * 2 }
+    }
+
+    def "No more lookups than the parallelism run at once"() {
+        given:
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+
+        when:
+        BulkLookup.stream((1..30).iterator(), 3, { int key ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), { a, b -> Math.max(a, b) })
+            Thread.sleep(10)
+            running.decrementAndGet()
+            key
+        }).toList()
+
+        then:
+        maxRunning.get() <= 3
+    }
+
+    def "Lookups are only started ahead of the consumed results up to the parallelism"() {
+        given:
+        def started = new AtomicInteger()
+
+        when:
+        def iterator = BulkLookup.stream((1..100).iterator(), 2, { int key ->
+            started.incrementAndGet()
+            key
+        }).iterator()
+        def first = iterator.next()
+
+        then:
+        first == 1
+        started.get() <= 3
+    }
+
+    def "The exception of a lookup is thrown when its result is reached"() {
+        given:
+        def iterator = BulkLookup.stream((1..3).iterator(), 2, { int key ->
+            if (key == 2) {
+                throw new BackendUnavailableException('unavailable')
+            }
+            key
+        }).iterator()
+
+        expect:
+        iterator.next() == 1
+
+        when:
+        iterator.next()
+
+        then:
+        thrown(BackendUnavailableException)
+    }
+
+    def "Closing the stream interrupts the lookups that are still running"() {
+        given:
+        def interrupted = new CountDownLatch(2)
+        def stream = BulkLookup.stream((1..3).iterator(), 2, { int key ->
+            if (key == 1) {
+                return key
+            }
+            try {
+                Thread.sleep(5000)
+            } catch (InterruptedException ignored) {
+                interrupted.countDown()
+            }
+            key
+        })
+
+        when: 'the first result is consumed, which starts the lookups of the next two keys'
+        stream.iterator().next()
+        stream.close()
+
+        then:
+        interrupted.await(1, TimeUnit.SECONDS)
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.CircuitBreakerConfiguration
+import spock.lang.Specification
+
+class CircuitBreakerSpecification extends Specification {
+
+    def "The circuit breaker opens when the failure rate reaches the threshold"() {
+        given: 'a circuit breaker that opens at half of at least four calls failing'
+        def circuitBreaker = new CircuitBreaker('test', Stub(CircuitBreakerConfiguration) {
+            failureRateThreshold() >> 50
+            slidingWindow() >> 10
+            minimumCalls() >> 4
+            openDuration() >> 30
+            halfOpenCalls() >> 2
+        })
+
+        when: 'one of three calls failed'
+        circuitBreaker.recordSuccess()
+        circuitBreaker.recordSuccess()
+        circuitBreaker.recordFailure()
+
+        then: 'requests are still permitted, as there are not enough calls'
+        circuitBreaker.state() == CircuitBreaker.State.CLOSED
+        circuitBreaker.tryAcquirePermission()
+
+        when: 'another call fails'
+        circuitBreaker.recordFailure()
+
+        then: 'the circuit breaker is open and rejects requests'
+        circuitBreaker.state() == CircuitBreaker.State.OPEN
+        !circuitBreaker.tryAcquirePermission()
+    }
+
+    def "The circuit breaker lets trial requests through after the open duration"() {
+        given: 'a circuit breaker that opened and has no open duration'
+        def circuitBreaker = new CircuitBreaker('test', Stub(CircuitBreakerConfiguration) {
+            failureRateThreshold() >> 50
+            slidingWindow() >> 10
+            minimumCalls() >> 1
+            openDuration() >> 0
+            halfOpenCalls() >> 2
+        })
+        circuitBreaker.recordFailure()
+
+        when: 'requests are made'
+        def permissions = (1..3).collect { circuitBreaker.tryAcquirePermission() }
+
+        then: 'only the trial requests are permitted'
+        circuitBreaker.state() == CircuitBreaker.State.HALF_OPEN
+        permissions == [true, true, false]
+
+        when: 'the trial requests succeed'
+        circuitBreaker.recordSuccess()
+        circuitBreaker.recordSuccess()
+
+        then: 'the circuit breaker is closed'
+        circuitBreaker.state() == CircuitBreaker.State.CLOSED
+        circuitBreaker.tryAcquirePermission()
+    }
+
+    def "The circuit breaker opens again when a trial request fails"() {
+        given: 'a half-open circuit breaker'
+        def circuitBreaker = new CircuitBreaker('test', Stub(CircuitBreakerConfiguration) {
+            failureRateThreshold() >> 50
+            slidingWindow() >> 10
+            minimumCalls() >> 1
+            openDuration() >> 0
+            halfOpenCalls() >> 2
+        })
+        circuitBreaker.recordFailure()
+        circuitBreaker.tryAcquirePermission()
+
+        when: 'a trial request fails'
+        circuitBreaker.recordFailure()
+
+        then: 'the circuit breaker is open'
+        circuitBreaker.state() == CircuitBreaker.State.OPEN
+    }
+
+    def "A trial permission that is released lets another trial request through"() {
+        given: 'a half-open circuit breaker whose trial requests are all taken'
+        def circuitBreaker = new CircuitBreaker('test', Stub(CircuitBreakerConfiguration) {
+            failureRateThreshold() >> 50
+            slidingWindow() >> 10
+            minimumCalls() >> 1
+            openDuration() >> 0
+            halfOpenCalls() >> 2
+        })
+        circuitBreaker.recordFailure()
+        2.times { circuitBreaker.tryAcquirePermission() }
+
+        when: 'one of the trial requests is not made'
+        circuitBreaker.releasePermission()
+
+        then: 'another trial request is permitted, but no more'
+        circuitBreaker.tryAcquirePermission()
+        !circuitBreaker.tryAcquirePermission()
+
+        when: 'the trial requests that were made succeed'
+        circuitBreaker.recordSuccess()
+        circuitBreaker.recordSuccess()
+
+        then: 'the circuit breaker is closed'
+        circuitBreaker.state() == CircuitBreaker.State.CLOSED
+    }
+}
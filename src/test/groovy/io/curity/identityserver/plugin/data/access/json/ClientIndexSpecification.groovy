@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ClientIndexSpecification extends Specification {
+
+    def documents = [
+            [client_id: 'web-app', name: 'Customer Portal', tags: ['web', 'public'], meta: [created: '2024-03-01']],
+            [client_id: 'mobile-app', name: 'Customer App', description: 'iOS and Android', tags: ['mobile'],
+             status: 'INACTIVE', meta: [created: '2024-01-15']],
+            [client_id: 'backend', name: 'Billing Service', tags: ['internal'], meta: [created: '2024-02-10']],
+            [client_id: 'partner', description: 'Portal of a partner', tags: ['web']]
+    ]
+
+    @Unroll
+    def "The index matches the same clients as the query"() {
+        given: 'an index of the clients'
+        def index = new ClientIndex(documents)
+
+        and: 'a query'
+        def query = new LocalClientQuery(nameFilter, searchTerms, tags as Set, activeOnly,
+                LocalClientQuery.Ordering.BY_CLIENT_ID)
+
+        when: 'the matching clients are looked up in the index'
+        def matching = index.matching(query)
+
+        then: 'they are the clients that the query matches'
+        matching.stream().toArray().collect { documents[it].client_id } as Set == expected as Set
+        documents.findAll { query.matches(it) }*.client_id as Set == expected as Set
+
+        where:
+        nameFilter | searchTerms | tags              | activeOnly || expected
+        null       | null        | null              | false      || ['web-app', 'mobile-app', 'backend', 'partner']
+        null       | null        | null              | true       || ['web-app', 'backend', 'partner']
+        'customer' | null        | null              | false      || ['web-app', 'mobile-app']
+        'cu'       | null        | null              | false      || ['web-app', 'mobile-app']
+        'mer app'  | null        | null              | false      || ['mobile-app']
+        null       | 'PORTAL'    | null              | false      || ['web-app', 'partner']
+        null       | 'app'       | null              | true       || ['web-app']
+        null       | 'andr'      | null              | false      || ['mobile-app']
+        null       | null        | ['web', 'mobile'] | false      || ['web-app', 'mobile-app', 'partner']
+        'customer' | null        | ['web']           | false      || ['web-app']
+        null       | 'nothing'   | null              | false      || []
+    }
+
+    def "The clients are ordered by the field to sort by, with clients without it last"() {
+        given: 'an index of the clients'
+        def index = new ClientIndex(documents)
+
+        when: 'the clients are ordered by their created time, in both orders'
+        def ascending = index.ordering(new LocalClientQuery.Ordering('created', null, false))
+        def descending = index.ordering(new LocalClientQuery.Ordering('created', null, true))
+
+        then: 'they are sorted by the created time of their meta'
+        ascending.collect { documents[it].client_id } == ['mobile-app', 'backend', 'web-app', 'partner']
+        descending.collect { documents[it].client_id } == ['web-app', 'backend', 'mobile-app', 'partner']
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration
+import se.curity.identityserver.sdk.datasource.pagination.PaginationRequest
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class ClientReplicaSpecification extends Specification {
+
+    def allClients = new LocalClientQuery(null, null, false)
+
+    def "The pages of the replica have cursors that are not mistaken for cursors of the JSON service"() {
+        given: 'a loaded replica of three clients'
+        def replica = new ClientReplica(configuration(60, 0), { profileId, changedSince, consumer ->
+            ['one', 'two', 'three'].each { consumer.accept([client_id: it, status: 'ACTIVE']) }
+        })
+        def snapshot = loaded(replica)
+
+        when: 'the first page is listed'
+        def firstPage = snapshot.query(allClients, page(null, 2))
+
+        then: 'its cursor has the prefix of the replica'
+        firstPage.nextCursor() == 'replica:2'
+
+        and: 'the next page is found by that cursor, but not by a numeric cursor of the JSON service'
+        snapshot.query(allClients, page('replica:2', 2)).clients().size() == 1
+        snapshot.query(allClients, page('2', 2)) == null
+    }
+
+    def "Written clients are read from the snapshot without relisting"() {
+        given:
+        def replica = new ClientReplica(configuration(60, 0), { profileId, changedSince, consumer ->
+            consumer.accept([client_id: 'one', status: 'ACTIVE'])
+        })
+        loaded(replica)
+
+        when:
+        replica.recordWritten('profile', [client_id: 'two', status: 'ACTIVE'])
+        replica.recordDeleted('profile', 'one')
+        def snapshot = replica.clients('profile')
+
+        then:
+        snapshot.get('two').clientId == 'two'
+        snapshot.get('one') == null
+        snapshot.count(allClients) == 1
+    }
+
+    def "The replica is not used when it could not be updated for longer than the maximum staleness"() {
+        given: 'a replica that can only be loaded once'
+        def listings = new AtomicInteger()
+        def replica = new ClientReplica(configuration(0, 1), { profileId, changedSince, consumer ->
+            if (listings.incrementAndGet() > 1) {
+                throw new BackendUnavailableException('unavailable')
+            }
+            consumer.accept([client_id: 'one', status: 'ACTIVE'])
+        })
+        loaded(replica)
+
+        expect: 'the replica is no longer used once the maximum staleness has passed'
+        new PollingConditions(timeout: 5).eventually {
+            assert replica.clients('profile') == null
+        }
+    }
+
+    private DatabaseClientConfiguration.ClientReplica configuration(int refreshInterval, int maxStaleness) {
+        Stub(DatabaseClientConfiguration.ClientReplica) {
+            refreshInterval() >> refreshInterval
+            reloadInterval() >> 3600
+            maxClients() >> 100
+            maxStaleness() >> maxStaleness
+        }
+    }
+
+    private PaginationRequest page(String cursor, int count) {
+        Stub(PaginationRequest) {
+            getCursor() >> cursor
+            getCount() >> count
+        }
+    }
+
+    private static ClientReplica.Snapshot loaded(ClientReplica replica) {
+        def snapshot = null
+        new PollingConditions(timeout: 5).eventually {
+            snapshot = replica.clients('profile')
+            assert snapshot != null
+        }
+        snapshot
+    }
+}
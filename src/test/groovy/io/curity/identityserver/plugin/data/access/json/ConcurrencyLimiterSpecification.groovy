@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.ConcurrencyLimitConfiguration
+import spock.lang.Specification
+
+class ConcurrencyLimiterSpecification extends Specification {
+
+    def configuration = Stub(ConcurrencyLimitConfiguration) {
+        initialLimit() >> 2
+        minLimit() >> 1
+        maxLimit() >> 10
+        latencyTolerance() >> 200
+        maxWait() >> 0
+    }
+
+    def "Requests above the limit are rejected"() {
+        given:
+        def limiter = new ConcurrencyLimiter(configuration)
+
+        when:
+        def permissions = (1..3).collect { limiter.tryAcquire() }
+
+        then:
+        permissions == [true, true, false]
+        limiter.stats() == new ConcurrencyLimitStats(2, 2, 1)
+    }
+
+    def "The limit shrinks when the JSON service is overloaded and grows again while it is used"() {
+        given:
+        def limiter = new ConcurrencyLimiter(configuration)
+        limiter.tryAcquire()
+
+        when: 'a request fails because of overload'
+        limiter.release(BackendOperation.GET_CLIENT, 1_000_000, true)
+
+        then:
+        limiter.stats().limit() == 1
+
+        when: 'a fast request uses the whole limit'
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.GET_CLIENT, 1_000_000, false)
+
+        then:
+        limiter.stats().limit() == 2
+    }
+
+    def "A request that is much slower than the fastest recent request shrinks the limit"() {
+        given:
+        def limiter = limiterWithInitialLimit(10)
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.GET_CLIENT, 1_000_000, false)
+
+        when:
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.GET_CLIENT, 10_000_000, false)
+
+        then:
+        limiter.stats().limit() == 9
+    }
+
+    def "The limit shrinks only once for the requests that were in flight together"() {
+        given:
+        def limiter = limiterWithInitialLimit(10)
+        10.times { limiter.tryAcquire() }
+
+        when: 'all requests that were in flight fail because of overload'
+        10.times { limiter.release(BackendOperation.GET_CLIENT, 100_000_000, true) }
+
+        then:
+        limiter.stats().limit() == 9
+    }
+
+    def "A request is only compared to the fastest recent request of the same operation"() {
+        given: 'a limiter that has seen fast lookups of clients'
+        def limiter = limiterWithInitialLimit(10)
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.GET_CLIENT, 1_000_000, false)
+
+        when: 'listing the clients is much slower than a lookup'
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.LIST_CLIENTS, 100_000_000, false)
+
+        then: 'the limit does not shrink'
+        limiter.stats().limit() == 10
+
+        when: 'a lookup is much slower than the fastest lookup'
+        limiter.tryAcquire()
+        limiter.release(BackendOperation.GET_CLIENT, 10_000_000, false)
+
+        then: 'the limit shrinks'
+        limiter.stats().limit() == 9
+    }
+
+    private ConcurrencyLimiter limiterWithInitialLimit(int limit) {
+        new ConcurrencyLimiter(Stub(ConcurrencyLimitConfiguration) {
+            initialLimit() >> limit
+            minLimit() >> 1
+            maxLimit() >> 100
+            latencyTolerance() >> 200
+            maxWait() >> 0
+        })
+    }
+}
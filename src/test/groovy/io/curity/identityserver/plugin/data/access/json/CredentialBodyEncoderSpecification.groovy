@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import groovy.json.JsonSlurper
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.charset.StandardCharsets
+
+class CredentialBodyEncoderSpecification extends Specification {
+
+    @Unroll
+    def "The JSON body contains the username and password as they were given"() {
+        given:
+        def encoder = new CredentialBodyEncoder('user"name', 'password')
+
+        when:
+        def body = encoder.json(username, password)
+
+        then:
+        new JsonSlurper().parseText(new String(body, StandardCharsets.UTF_8)) == expected
+
+        where:
+        username       | password            || expected
+        'johndoe'      | 'Password1'         || ['user"name': 'johndoe', password: 'Password1']
+        'björn öl'     | 'p"a\\s\ns€😀'      || ['user"name': 'björn öl', password: 'p"a\\s\ns€😀']
+        'johndoe'      | null                || ['user"name': 'johndoe']
+    }
+
+    @Unroll
+    def "The form body is encoded like URLEncoder does"() {
+        given:
+        def encoder = new CredentialBodyEncoder('user name', 'pass&word')
+
+        when:
+        def body = new String(encoder.form(username, password), StandardCharsets.ISO_8859_1)
+
+        then:
+        body == expected
+
+        where:
+        username   | password     || expected
+        'johndoe'  | 'Pass 1+2=3' || 'user+name=johndoe&pass%26word=Pass+1%2B2%3D3'
+        'björn'    | '€*._-~'     || 'user+name=bj%C3%B6rn&pass%26word=%E2%82%AC*._-%7E'
+        'johndoe'  | null         || 'user+name=johndoe'
+    }
+
+    def "A body can be wiped"() {
+        given:
+        def body = new CredentialBodyEncoder('username', 'password').json('johndoe', 'Password1')
+
+        when:
+        CredentialBodyEncoder.wipe(body)
+
+        then:
+        body.every { it == 0 as byte }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes
+import spock.lang.Specification
+
+class DatabaseClientCacheSpecification extends Specification {
+
+    def cache = new DatabaseClientCache(Stub(DatabaseClientConfiguration.ClientCache) {
+        timeToLive() >> 60
+        revalidationPeriod() >> 0
+        maxEntries() >> 100
+    })
+
+    def "A loaded client is cached"() {
+        given:
+        def loads = 0
+
+        when:
+        2.times { cache.get('profile', 'one', { expired -> loads++; entry('one') }) }
+
+        then:
+        loads == 1
+    }
+
+    def "A client that was invalidated while it was loaded is not cached"() {
+        given:
+        def loads = 0
+
+        when: 'the client is updated while it is loaded'
+        cache.get('profile', 'one', { expired ->
+            loads++
+            cache.invalidate('profile', 'one')
+            entry('one')
+        })
+
+        and: 'it is read again'
+        cache.get('profile', 'one', { expired -> loads++; entry('one') })
+
+        then: 'it is loaded again'
+        loads == 2
+    }
+
+    private static DatabaseClientCache.Entry entry(String clientId) {
+        new DatabaseClientCache.Entry(DatabaseClientAttributes.from([client_id: clientId]), ResponseValidators.NONE)
+    }
+}
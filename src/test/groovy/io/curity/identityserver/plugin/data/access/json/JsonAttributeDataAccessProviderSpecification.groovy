@@ -11,14 +11,14 @@
 
 package io.curity.identityserver.plugin.data.access.json
 
-import groovy.json.JsonSlurper
 import groovy.transform.CompileStatic
 import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration
 import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration
 import se.curity.identityserver.sdk.attribute.SubjectAttributes
 import se.curity.identityserver.sdk.http.HttpHeaders
+import se.curity.identityserver.sdk.http.HttpRequest
 import se.curity.identityserver.sdk.http.HttpResponse
-import se.curity.identityserver.sdk.service.Json
+import se.curity.identityserver.sdk.service.WebServiceClient
 import spock.lang.Issue
 import spock.lang.Specification
 import spock.lang.Unroll
@@ -43,7 +43,7 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         }
 
         and: 'A JSON DAP using mocked configuration'
-        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getAttributesConfiguration() >> attributesConfigurationMock
         })
 
@@ -80,7 +80,7 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         }
 
         and: 'A JSON DAP using mocked configuration'
-        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getAttributesConfiguration() >> attributesConfigurationMock
         })
 
@@ -109,6 +109,8 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
          [name: 'username', useValueOfAttribute: 'a']]        | [a: 'hello', subject: 'doe']    | [sub     : 'doe',
                                                                                                    subject : 'brüno',
                                                                                                    username: 'hello']
+        [[name: 'sub', staticValue: 'bruno'],
+         [name: 'sub', useValueOfAttribute: 'a']]             | [a: 'hello', subject: 'doe']    | [sub: 'hello']
 
     }
 
@@ -157,7 +159,7 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         }
 
         and: 'A JSON DAP using mocked configuration'
-        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getAttributesConfiguration() >> attributesConfigurationMock
         })
 
@@ -205,7 +207,8 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         and: 'a Mocked HTTP response which looks like the expected JSON response from the backend'
         def httpResponse = Stub(HttpResponse) {
             statusCode() >> 200
-            body(_) >> validJsonResponseBody
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream(validJsonResponseBody.getBytes('UTF-8'))) }
             headers() >> Stub(HttpHeaders) {
                 firstValue('Content-Type') >> 'application/json'
                 map() >> ['Content-Type': ['application/json']]
@@ -213,10 +216,8 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         }
 
         and: 'A JSON DAP using mocked configuration'
-        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
-            json() >> Stub(Json) {
-                fromJson(validJsonResponseBody) >> new JsonSlurper().parseText(validJsonResponseBody)
-            }
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getAttributesConfiguration() >> Stub(AttributesConfiguration)
         })
 
         when:
@@ -234,4 +235,108 @@ class JsonAttributeDataAccessProviderSpecification extends Specification {
         actualAttributes['https://ws-fed.style.com/claim/name'].name.format == 'json'
     }
 
+    def "Only the projected attributes are requested and read"() {
+        given: 'a JSON Response body with more attributes than are projected'
+        String validJsonResponseBody = '{"subject": "the-subject", "groups": [{"name": "a"}, {"name": "b"}], ' +
+                '"email": "ash@example.com", "address": {"city": "Pallet"}}'
+
+        def httpResponse = Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream(validJsonResponseBody.getBytes('UTF-8'))) }
+            headers() >> Stub(HttpHeaders) {
+                firstValue('Content-Type') >> 'application/json'
+                map() >> ['Content-Type': ['application/json']]
+            }
+        }
+
+        and: 'A JSON DAP that is configured with a projection'
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getAttributesConfiguration() >> Stub(AttributesConfiguration) {
+                projection() >> Optional.of(Stub(AttributesConfiguration.Projection) {
+                    attribute() >> ['subject', 'email']
+                    queryParameter() >> 'fields'
+                })
+            }
+        })
+
+        when: 'the query parameters are created for the request'
+        def actualQueryParameters = jsonAttributeDAP.createQueryParameters(subjectOf([subject: 'doe']))
+
+        then: 'the projected attributes are requested'
+        actualQueryParameters == [fields: 'subject,email']
+
+        when: 'the attributes are read from the response'
+        def actualAttributes = jsonAttributeDAP.getAttributesFrom(httpResponse)
+
+        then: 'only the projected attributes are kept'
+        actualAttributes.size() == 2
+        actualAttributes['subject']?.value == 'the-subject'
+        actualAttributes['email']?.value == 'ash@example.com'
+        actualAttributes['groups'] == null
+    }
+
+    def "Cached attributes are revalidated with a conditional request and reused when not modified"() {
+        given: 'a JSON Response body with an ETag, and a response that reports it was not modified'
+        String validJsonResponseBody = '{"subject": "the-subject", "group": "admins"}'
+
+        def okResponse = Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream(validJsonResponseBody.getBytes('UTF-8'))) }
+            headers() >> Stub(HttpHeaders) {
+                allValues('Content-Type') >> ['application/json']
+                allValues('ETag') >> ['"v1"']
+            }
+        }
+
+        def notModifiedResponse = Stub(HttpResponse) {
+            statusCode() >> 304
+        }
+
+        and: 'a mocked web-service client'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+        mockedClient.withPath(_) >> mockedClient
+
+        and: 'a JSON DAP with the attribute cache enabled'
+        def jsonAttributeDAP = new JsonAttributeDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getAttributesConfiguration() >> Stub(AttributesConfiguration) {
+                provideSubject() >> Stub(AttributesConfiguration.ProvideSubject) {
+                    urlPath() >> Optional.of('/users/:subject')
+                }
+                attributeCache() >> Optional.of(Stub(AttributesConfiguration.AttributeCache) {
+                    maxEntries() >> 10
+                    revalidationPeriod() >> 60
+                })
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the attributes are read'
+        def first = jsonAttributeDAP.getAttributes('the-subject')
+
+        then: 'an unconditional request is made'
+        0 * mockedRequestBuilder.header('If-None-Match', '"v1"')
+        1 * mockedRequestBuilder.method('GET') >> Stub(HttpRequest) {
+            response() >> okResponse
+        }
+        _ * mockedRequestBuilder._ >> mockedRequestBuilder
+
+        when: 'the attributes are read again'
+        def second = jsonAttributeDAP.getAttributes('the-subject')
+
+        then: 'the request is conditional on the ETag of the first response'
+        1 * mockedRequestBuilder.header('If-None-Match', '"v1"') >> mockedRequestBuilder
+        1 * mockedRequestBuilder.method('GET') >> Stub(HttpRequest) {
+            response() >> notModifiedResponse
+        }
+        _ * mockedRequestBuilder._ >> mockedRequestBuilder
+
+        and: 'the attributes that were read before are reused'
+        second.is(first)
+    }
 }
@@ -11,20 +11,19 @@
 
 package io.curity.identityserver.plugin.data.access.json
 
-import groovy.json.JsonOutput
-import groovy.json.JsonSlurper
 import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration
 import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration
 import se.curity.identityserver.sdk.attribute.AccountAttributes
 import se.curity.identityserver.sdk.http.HttpHeaders
 import se.curity.identityserver.sdk.http.HttpRequest
 import se.curity.identityserver.sdk.http.HttpResponse
-import se.curity.identityserver.sdk.service.Json
 import se.curity.identityserver.sdk.service.WebServiceClient
 import spock.lang.Specification
 import spock.lang.Unroll
 
+import java.nio.ByteBuffer
 import java.time.Instant
+import java.util.concurrent.Flow
 
 class JsonCredentialDataAccessProviderSpecification extends Specification {
 
@@ -36,7 +35,7 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         }
 
         and: 'A JSON DAP using mocked configuration'
-        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
         })
 
@@ -85,7 +84,8 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         and: 'a Mocked HTTP response which looks like the expected JSON response from the backend'
         def httpResponse = Stub(HttpResponse) {
             statusCode() >> 200
-            body(_) >> validJsonResponseBody
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream(validJsonResponseBody.getBytes('UTF-8'))) }
             headers() >> Stub(HttpHeaders) {
                 firstValue('Content-Type') >> 'application/json'
                 map() >> ['Content-Type': ['application/json']]
@@ -93,10 +93,8 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         }
 
         and: 'a JSON DAP using mocked configuration'
-        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
-            json() >> Stub(Json) {
-                fromJson(validJsonResponseBody) >> new JsonSlurper().parseText(validJsonResponseBody)
-            }
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getCredentialAccessConfiguration() >> Stub(CredentialAccessConfiguration)
         })
 
         when:
@@ -136,7 +134,8 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         and: 'a Mocked HTTP response which looks like the expected JSON response from the backend'
         def httpResponse = Stub(HttpResponse) {
             statusCode() >> 200
-            body(_) >> "{}"
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream("{}".getBytes('UTF-8'))) }
             headers() >> Stub(HttpHeaders) {
                 firstValue('Content-Type') >> 'application/json'
                 map() >> ['Content-Type': ['application/json']]
@@ -155,13 +154,12 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
             request() >> mockedRequestBuilder
         }
 
-        def mockedJson = Mock(Json)
+        String sentBody = null
 
         and: 'a JSON DAP using mocked configuration'
-        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
             webServiceClient() >> mockedClient
-            json() >> mockedJson
         })
 
         when: 'asked to update the password'
@@ -170,13 +168,14 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         then: 'the expected request was made'
         1 * mockedClient.withPath('/johndoe?pwd=Password1') >> mockedClient
         1 * mockedRequestBuilder.contentType('application/json') >> mockedRequestBuilder
+        1 * mockedRequestBuilder.body(_) >> { HttpRequest.BodyProcessor body ->
+            sentBody = contentOf(body)
+            mockedRequestBuilder
+        }
         1 * mockedRequestBuilder.method('PUT') >> mockedRequest
 
-        mockedJson.toJson(_) >> { Map attributes ->
-            assert attributes[usernameParam] == subject
-            assert attributes[passwordParam] == password
-            new JsonOutput().toJson(_)
-        }
+        and: 'the username and password were sent as JSON'
+        sentBody == '{"username":"johndoe","password":"Password1"}'
     }
 
     @Unroll
@@ -209,7 +208,8 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         and: 'a Mocked HTTP response which looks like the expected JSON response from the backend'
         def httpResponse = Stub(HttpResponse) {
             statusCode() >> 200
-            body(_) >> validJsonResponseBody
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream(validJsonResponseBody.getBytes('UTF-8'))) }
             headers() >> Stub(HttpHeaders) {
                 firstValue('Content-Type') >> 'application/json'
                 map() >> ['Content-Type': ['application/json']]
@@ -228,15 +228,12 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
             request() >> mockedRequestBuilder
         }
 
-        def mockedJson = Mock(Json) {
-            fromJson(_) >> { jsonBody -> new JsonSlurper().parseText(jsonBody) }
-        }
+        String sentBody = null
 
         and: 'a JSON DAP using mocked configuration'
-        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration) {
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
             getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
             webServiceClient() >> mockedClient
-            json() >> mockedJson
         })
 
         when: 'asked to update the password'
@@ -268,16 +265,14 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
             mockedClient
         }
 
-        // Used when submissionType == POST_AS_JSON
-        mockedJson.toJson(_) >> { Map attributes ->
-            assert attributes[usernameParam] == subject
-            if (verifyPassword) {
-                assert attributes[passwordParam] == password
-            }
-            new JsonOutput().toJson(_)
+        // Used when submissionType == POST_AS_JSON or POST_AS_URLENCODED_FORMDATA
+        (0..1) * mockedRequestBuilder.body(_) >> { HttpRequest.BodyProcessor body ->
+            sentBody = contentOf(body)
+            mockedRequestBuilder
         }
 
-        // TODO: Also verify request body for content-type 'application/x-www-form-urlencoded'
+        and: 'the expected body was sent'
+        sentBody == expectedBody
 
         and: 'the returned authentication attributes looks as expected'
         authenticationAttributes.subjectAttributes.subject == subject
@@ -285,12 +280,222 @@ class JsonCredentialDataAccessProviderSpecification extends Specification {
         authenticationAttributes.subjectAttributes['foo']?.value == 'bar'
 
         where:
-        verifyPassword | submissionType                                                     || expectedContentType
-        true           | CredentialAccessConfiguration.SubmitAs.POST_AS_JSON                || 'application/json'
-        false          | CredentialAccessConfiguration.SubmitAs.POST_AS_JSON                || 'application/json'
-        true           | CredentialAccessConfiguration.SubmitAs.POST_AS_URLENCODED_FORMDATA || 'application/x-www-form-urlencoded'
-        false          | CredentialAccessConfiguration.SubmitAs.POST_AS_URLENCODED_FORMDATA || 'application/x-www-form-urlencoded'
-        true           | CredentialAccessConfiguration.SubmitAs.GET_AS_QUERYSTRING          || null
-        false          | CredentialAccessConfiguration.SubmitAs.GET_AS_QUERYSTRING          || null
+        verifyPassword | submissionType                                                     || expectedContentType                 | expectedBody
+        true           | CredentialAccessConfiguration.SubmitAs.POST_AS_JSON                || 'application/json'                  | '{"username":"johndoe","password":"Password1"}'
+        false          | CredentialAccessConfiguration.SubmitAs.POST_AS_JSON                || 'application/json'                  | '{"username":"johndoe"}'
+        true           | CredentialAccessConfiguration.SubmitAs.POST_AS_URLENCODED_FORMDATA || 'application/x-www-form-urlencoded' | 'username=johndoe&password=Password1'
+        false          | CredentialAccessConfiguration.SubmitAs.POST_AS_URLENCODED_FORMDATA || 'application/x-www-form-urlencoded' | 'username=johndoe'
+        true           | CredentialAccessConfiguration.SubmitAs.GET_AS_QUERYSTRING          || null                                | null
+        false          | CredentialAccessConfiguration.SubmitAs.GET_AS_QUERYSTRING          || null                                | null
+    }
+
+    def "A verified password is not sent to the backend again until the password is updated"() {
+        given: 'Configuration for the JSON credential provider with the verified credential cache enabled'
+        def credentialAccessConfigurationMock = Stub(CredentialAccessConfiguration) {
+            urlPath() >> '/:subject'
+            usernameParameter() >> 'username'
+            passwordParameter() >> 'password'
+            submitAs() >> CredentialAccessConfiguration.SubmitAs.POST_AS_JSON
+            backendVerifiesPassword() >> true
+            verifiedCredentialCache() >> Optional.of(Stub(CredentialAccessConfiguration.VerifiedCredentialCache) {
+                timeToLive() >> 30
+                maxEntries() >> 100
+                hashIterations() >> 1000
+            })
+        }
+
+        and: 'a mocked web-service client that reports success'
+        def httpResponse = Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream('{"subject": "johndoe"}'.getBytes('UTF-8'))) }
+            headers() >> Stub(HttpHeaders) {
+                firstValue('Content-Type') >> 'application/json'
+                map() >> ['Content-Type': ['application/json']]
+            }
+        }
+
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> httpResponse
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+
+        and: 'a JSON DAP using mocked configuration'
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the same password is verified twice, and another password once'
+        def first = jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+        def second = jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+        jsonCredentialDAP.verifyPassword('johndoe', 'Password2')
+
+        then: 'only the first verification of each password is sent to the backend'
+        2 * mockedClient.withPath('/johndoe') >> mockedClient
+        second.is(first)
+
+        when: 'the password is updated and verified again'
+        jsonCredentialDAP.updatePassword(AccountAttributes.of('someid', 'johndoe').withPassword('Password1'))
+        jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+
+        then: 'the verification is sent to the backend again'
+        2 * mockedClient.withPath('/johndoe') >> mockedClient
+    }
+
+    def "A verified password is sent to the backend again after an update of the password that failed"() {
+        given: 'Configuration for the JSON credential provider with the verified credential cache enabled'
+        def credentialAccessConfigurationMock = Stub(CredentialAccessConfiguration) {
+            urlPath() >> '/:subject'
+            usernameParameter() >> 'username'
+            passwordParameter() >> 'password'
+            submitAs() >> CredentialAccessConfiguration.SubmitAs.POST_AS_JSON
+            backendVerifiesPassword() >> true
+            verifiedCredentialCache() >> Optional.of(Stub(CredentialAccessConfiguration.VerifiedCredentialCache) {
+                timeToLive() >> 30
+                maxEntries() >> 100
+                hashIterations() >> 1000
+            })
+        }
+
+        and: 'a mocked web-service client that verifies passwords, but gets no response to the update of a password'
+        def httpResponse = Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream('{"subject": "johndoe"}'.getBytes('UTF-8'))) }
+            headers() >> Stub(HttpHeaders) {
+                firstValue('Content-Type') >> 'application/json'
+                map() >> ['Content-Type': ['application/json']]
+            }
+        }
+
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method('PUT') >> Stub(HttpRequest) {
+            response() >> { throw new BackendUnavailableException('No response') }
+        }
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> httpResponse
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+
+        and: 'a JSON DAP using mocked configuration, with the password verified once'
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
+            webServiceClient() >> mockedClient
+        })
+        mockedClient.withPath('/johndoe') >> mockedClient
+        jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+
+        when: 'the update of the password fails, since the JSON service may still have changed it'
+        jsonCredentialDAP.updatePassword(AccountAttributes.of('someid', 'johndoe').withPassword('Password2'))
+
+        then:
+        thrown(BackendUnavailableException)
+
+        when: 'the old password is verified again'
+        jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+
+        then: 'the verification is sent to the backend'
+        1 * mockedClient.withPath('/johndoe') >> mockedClient
+    }
+
+    def "An account record is not requested from the backend again until the password is updated"() {
+        given: 'Configuration for the JSON credential provider with the account record cache enabled'
+        def credentialAccessConfigurationMock = Stub(CredentialAccessConfiguration) {
+            urlPath() >> '/:subject'
+            usernameParameter() >> 'username'
+            submitAs() >> CredentialAccessConfiguration.SubmitAs.GET_AS_QUERYSTRING
+            backendVerifiesPassword() >> false
+            accountRecordCache() >> Optional.of(Stub(CredentialAccessConfiguration.AccountRecordCache) {
+                timeToLive() >> 30
+                maxEntries() >> 100
+            })
+        }
+
+        and: 'a mocked web-service client that returns the account record'
+        def httpResponse = Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter -> converter.convert(
+                    new ByteArrayInputStream('{"subject": "johndoe", "password": "$2a$10$hash"}'.getBytes('UTF-8'))) }
+            headers() >> Stub(HttpHeaders) {
+                firstValue('Content-Type') >> 'application/json'
+                map() >> ['Content-Type': ['application/json']]
+            }
+        }
+
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> httpResponse
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP using mocked configuration'
+        def jsonCredentialDAP = new JsonCredentialDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getCredentialAccessConfiguration() >> credentialAccessConfigurationMock
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the record is used to verify two passwords'
+        def first = jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+        def second = jsonCredentialDAP.verifyPassword('johndoe', 'Password2')
+
+        then: 'the record is requested once'
+        1 * mockedClient.withPath('/johndoe') >> mockedClient
+        second.is(first)
+
+        when: 'the password is updated and verified again'
+        jsonCredentialDAP.updatePassword(AccountAttributes.of('someid', 'johndoe').withPassword('Password1'))
+        jsonCredentialDAP.verifyPassword('johndoe', 'Password1')
+
+        then: 'the record is requested again'
+        2 * mockedClient.withPath('/johndoe') >> mockedClient
+    }
+
+    /**
+     * Read the content of a request body while the request is built, before the provider wipes the bytes that hold
+     * the password.
+     */
+    private static String contentOf(HttpRequest.BodyProcessor body) {
+        if (body instanceof Flow.Publisher) {
+            def content = new ByteArrayOutputStream()
+            ((Flow.Publisher<ByteBuffer>) body).subscribe(new Flow.Subscriber<ByteBuffer>() {
+                void onSubscribe(Flow.Subscription subscription) { subscription.request(Long.MAX_VALUE) }
+
+                void onNext(ByteBuffer item) {
+                    byte[] bytes = new byte[item.remaining()]
+                    item.get(bytes)
+                    content.write(bytes)
+                }
+
+                void onError(Throwable throwable) { throw throwable }
+
+                void onComplete() {}
+            })
+            return content.toString('UTF-8')
+        }
+
+        for (def type = body.class; type != null; type = type.superclass) {
+            def field = type.declaredFields.find { it.type == byte[] }
+            if (field) {
+                field.accessible = true
+                return new String((byte[]) field.get(body), 'UTF-8')
+            }
+        }
+
+        throw new IllegalArgumentException("Can't read the content of ${body.class}")
     }
 }
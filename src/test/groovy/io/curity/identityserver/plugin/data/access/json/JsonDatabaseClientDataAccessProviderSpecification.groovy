@@ -0,0 +1,593 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import groovy.json.JsonSlurper
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration
+import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration
+import se.curity.identityserver.sdk.attribute.client.database.DatabaseClientAttributes
+import se.curity.identityserver.sdk.http.HttpHeaders
+import se.curity.identityserver.sdk.http.HttpRequest
+import se.curity.identityserver.sdk.http.HttpResponse
+import se.curity.identityserver.sdk.service.Json
+import se.curity.identityserver.sdk.service.WebServiceClient
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+
+class JsonDatabaseClientDataAccessProviderSpecification extends Specification {
+
+    def "A database client is only requested once from the backend when the client cache is enabled"() {
+        given: 'a JSON Response body with a database client'
+        String clientJson = '{"client_id": "client-one", "name": "Client One"}'
+
+        and: 'a mocked web-service client that returns the database client'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse(clientJson)
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+
+        and: 'a JSON DAP with the client cache enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.of(Stub(DatabaseClientConfiguration.ClientCache) {
+                    timeToLive() >> 60
+                    maxEntries() >> 100
+                })
+            }
+            webServiceClient() >> mockedClient
+            json() >> Stub(Json) {
+                fromJson(_) >> { String body -> new JsonSlurper().parseText(body) }
+            }
+        })
+
+        when: 'the same client is requested twice'
+        def first = provider.getClientById('client-one', 'profile')
+        def second = provider.getClientById('client-one', 'profile')
+
+        then: 'only one request is made to the backend'
+        1 * mockedClient.withPath('/api/dbclients/profile/client-one') >> mockedClient
+
+        and: 'both lookups return the client'
+        first.clientId == 'client-one'
+        second.clientId == 'client-one'
+
+        and: 'the cache statistics reflect the hit and the miss'
+        provider.clientCacheStats.hitCount() == 1
+        provider.clientCacheStats.missCount() == 1
+    }
+
+    def "A cached database client is requested again from the backend after it was deleted"() {
+        given: 'a mocked web-service client that returns the database client'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse('{"client_id": "client-one"}')
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+
+        and: 'a JSON DAP with the client cache enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.of(Stub(DatabaseClientConfiguration.ClientCache) {
+                    timeToLive() >> 60
+                    maxEntries() >> 100
+                })
+            }
+            webServiceClient() >> mockedClient
+            json() >> Stub(Json) {
+                fromJson(_) >> { String body -> new JsonSlurper().parseText(body) }
+            }
+        })
+
+        when: 'the client is read, deleted and read again'
+        provider.getClientById('client-one', 'profile')
+        provider.delete('client-one', 'profile')
+        provider.getClientById('client-one', 'profile')
+
+        then: 'the client is requested from the backend both times'
+        3 * mockedClient.withPath('/api/dbclients/profile/client-one') >> mockedClient
+    }
+
+    def "A database client that was not found is not requested again until it is created"() {
+        given: 'a mocked web-service client that does not find the client'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method('GET') >> Stub(HttpRequest) {
+            response() >> Stub(HttpResponse) {
+                statusCode() >> 404
+            }
+        }
+        mockedRequestBuilder.method('POST') >> Stub(HttpRequest) {
+            response() >> okResponse('{"client_id": "client-one"}')
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withPath('/api/dbclients/profile') >> mockedClient
+
+        and: 'a JSON DAP with the not-found cache enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                notFoundCache() >> Optional.of(Stub(DatabaseClientConfiguration.NotFoundCache) {
+                    timeToLive() >> 60
+                    maxEntries() >> 100
+                })
+                knownClientIdFilter() >> Optional.empty()
+            }
+            webServiceClient() >> mockedClient
+            json() >> Stub(Json) {
+                fromJson(_) >> { String body -> new JsonSlurper().parseText(body) }
+                toJson(_) >> '{"client_id": "client-one"}'
+            }
+        })
+
+        when: 'the unknown client is requested twice'
+        def first = provider.getClientById('client-one', 'profile')
+        def second = provider.getClientById('client-one', 'profile')
+
+        then: 'the client is only requested once from the backend'
+        1 * mockedClient.withPath('/api/dbclients/profile/client-one') >> mockedClient
+        first == null
+        second == null
+
+        when: 'the client is created and requested again'
+        provider.create(DatabaseClientAttributes.from([client_id: 'client-one']), 'profile')
+        provider.getClientById('client-one', 'profile')
+
+        then: 'the client is requested from the backend again'
+        1 * mockedClient.withPath('/api/dbclients/profile/client-one') >> mockedClient
+    }
+
+    def "The count of database clients is read from the count endpoint"() {
+        given: 'a mocked web-service client that responds with a count'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse(countResponseBody)
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP configured to use the count endpoint'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                countUsing() >> DatabaseClientConfiguration.CountUsing.COUNT_ENDPOINT
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the clients are counted'
+        def count = provider.getClientCountBy('profile', null, false)
+
+        then: 'the count endpoint was requested'
+        1 * mockedClient.withPath('/api/dbclients/profile/count') >> mockedClient
+
+        and: 'the count is read from the response'
+        count == 3
+
+        where:
+        countResponseBody << ['3', '{"count": 3, "profile": "profile"}']
+    }
+
+    def "The database clients are listed and counted when the count endpoint is not available"() {
+        given: 'a mocked web-service client without a count endpoint'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        def countRequest = Stub(HttpRequest) {
+            response() >> Stub(HttpResponse) {
+                statusCode() >> 404
+            }
+        }
+        def listRequest = Stub(HttpRequest) {
+            response() >> okResponse('[{"client_id": "one", "tags": ["a", "b"]}, {"client_id": "two"}]')
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP configured to use the count endpoint'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                countUsing() >> DatabaseClientConfiguration.CountUsing.COUNT_ENDPOINT
+                maxPageSize() >> 1024
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the clients are counted twice'
+        def first = provider.getClientCountBy('profile', null, false)
+        def second = provider.getClientCountBy('profile', null, false)
+
+        then: 'the count endpoint is only tried once'
+        1 * mockedClient.withPath('/api/dbclients/profile/count') >> mockedClient
+        1 * mockedRequestBuilder.method('GET') >> countRequest
+
+        and: 'the clients are listed to count them'
+        2 * mockedClient.withPath('/api/dbclients/profile') >> mockedClient
+        2 * mockedRequestBuilder.method('GET') >> listRequest
+
+        and: 'the listed clients are counted'
+        first == 2
+        second == 2
+    }
+
+    def "The database clients are not listed to count them when the count endpoint fails"() {
+        given: 'a mocked web-service client with a count endpoint that is overloaded'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> Stub(HttpResponse) {
+                statusCode() >> 503
+            }
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP configured to use the count endpoint'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                countUsing() >> DatabaseClientConfiguration.CountUsing.COUNT_ENDPOINT
+                maxPageSize() >> 1024
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the clients are counted'
+        provider.getClientCountBy('profile', null, false)
+
+        then: 'only the count endpoint is requested'
+        1 * mockedClient.withPath('/api/dbclients/profile/count') >> mockedClient
+        0 * mockedClient.withPath('/api/dbclients/profile')
+
+        and: 'counting fails'
+        def e = thrown(IllegalStateException)
+        e.message.contains('503')
+    }
+
+    def "Listed database clients are counted over all pages"() {
+        given: 'a mocked web-service client that responds with two pages of clients'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder._ >> mockedRequestBuilder
+        def mockedClient = listingClient(mockedRequestBuilder)
+
+        def firstPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "one"}, {"client_id": "two"}], "next_cursor": "c2"}')
+        }
+        def secondPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "three"}]}')
+        }
+
+        and: 'a JSON DAP configured to count by listing the clients'
+        def provider = countingByListingProvider(mockedClient)
+
+        when: 'the clients are counted'
+        def count = provider.getClientCountBy('profile', null, false)
+
+        then: 'both pages are requested'
+        2 * mockedRequestBuilder.method('GET') >>> [firstPage, secondPage]
+
+        and: 'the clients of all pages are counted'
+        count == 3
+    }
+
+    def "Counting listed database clients fails when a cursor repeats, rather than returning a partial count"() {
+        given: 'a mocked web-service client that responds with pages of clients, the last with a repeated cursor'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder._ >> mockedRequestBuilder
+        def mockedClient = listingClient(mockedRequestBuilder)
+
+        def firstPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "one"}, {"client_id": "two"}], "next_cursor": "c2"}')
+        }
+        def secondPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "three"}], "next_cursor": "c2"}')
+        }
+
+        and: 'a JSON DAP configured to count by listing the clients'
+        def provider = countingByListingProvider(mockedClient)
+
+        when: 'the clients are counted'
+        provider.getClientCountBy('profile', null, false)
+
+        then: 'both pages are requested'
+        2 * mockedRequestBuilder.method('GET') >>> [firstPage, secondPage]
+
+        and: 'counting fails at the repeated cursor'
+        def e = thrown(IllegalStateException)
+        e.message.contains('c2')
+    }
+
+    def "A page of database clients that exceeds the maximum page size is rejected"() {
+        given: 'a mocked web-service client that responds with a list of clients'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse('[' + (1..100).collect { '{"client_id": "client-' + it + '"}' }.join(',') + ']')
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withPath(_) >> mockedClient
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP with a small maximum page size'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                maxPageSize() >> 1024
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the clients are listed'
+        provider.getAllClientsBy('profile', null, null, null, false)
+
+        then: 'the page is rejected'
+        def e = thrown(UncheckedIOException)
+        e.message.contains('1024 bytes')
+    }
+
+    @Unroll
+    def "The cursor of the next page is read from the response of the backend"() {
+        given: 'a mocked web-service client that responds with a page of clients'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse(pageBody, linkHeaders)
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withPath(_) >> mockedClient
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                maxPageSize() >> 1024
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'the clients are listed'
+        def result = provider.getAllClientsBy('profile', null, null, null, false)
+
+        then: 'the clients and the cursor of the next page are returned'
+        result.items*.clientId == ['one', 'two']
+        result.cursor == expectedCursor
+
+        where:
+        pageBody                                                                    | linkHeaders                                            || expectedCursor
+        '[{"client_id": "one"}, {"client_id": "two"}]'                              | []                                                     || null
+        '{"items": [{"client_id": "one"}, {"client_id": "two"}], "next_cursor": "c2"}' | []                                                  || 'c2'
+        '{"next_cursor": null, "items": [{"client_id": "one"}, {"client_id": "two"}]}' | []                                                  || null
+        '[{"client_id": "one"}, {"client_id": "two"}]'                              | ['</api/dbclients/profile?count=2&cursor=c%2B2>; rel="next"'] || 'c+2'
+        '[{"client_id": "one"}, {"client_id": "two"}]'                              | ['</api/dbclients/profile?cursor=c0>; rel="prev"']     || null
+    }
+
+    def "Concurrent lookups of database clients are requested from the backend in one batch"() {
+        given: 'a mocked web-service client that responds with the clients of the batch'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> Stub(HttpRequest) {
+            response() >> okResponse('[{"client_id": "one"}, {"client_id": "two"}]')
+        }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+
+        and: 'a JSON DAP with batching of lookups enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                maxPageSize() >> 1024
+                lookupBatching() >> Optional.of(Stub(DatabaseClientConfiguration.LookupBatching) {
+                    maxWait() >> 5000
+                    maxBatchSize() >> 3
+                })
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'three clients are looked up at the same time'
+        def results = new ConcurrentHashMap<String, Optional<DatabaseClientAttributes>>()
+        def lookups = ['one', 'two', 'three'].collect { clientId ->
+            Thread.startVirtualThread {
+                results[clientId] = Optional.ofNullable(provider.getClientById(clientId, 'profile'))
+            }
+        }
+        lookups*.join()
+
+        then: 'one request is made for all of them'
+        1 * mockedClient.withPath('/api/dbclients/profile') >> mockedClient
+        1 * mockedClient.withQueries({ it.ids[0].split(',') as Set == ['one', 'two', 'three'] as Set }) >> mockedClient
+
+        and: 'each lookup gets its own client, or none when it was not found'
+        results['one'].get().clientId == 'one'
+        results['two'].get().clientId == 'two'
+        !results['three'].present
+    }
+
+    def "The clients of a batch are read from all pages of the response of the backend"() {
+        given: 'a mocked web-service client that responds with the clients of the batch on two pages'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withPath(_) >> mockedClient
+
+        def firstPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "one"}], "next_cursor": "c2"}')
+        }
+        def secondPage = Stub(HttpRequest) {
+            response() >> okResponse('{"items": [{"client_id": "two"}]}')
+        }
+
+        and: 'a JSON DAP with batching of lookups enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                maxPageSize() >> 1024
+                lookupBatching() >> Optional.of(Stub(DatabaseClientConfiguration.LookupBatching) {
+                    maxWait() >> 5000
+                    maxBatchSize() >> 2
+                })
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        when: 'two clients are looked up at the same time'
+        def results = new ConcurrentHashMap<String, Optional<DatabaseClientAttributes>>()
+        def lookups = ['one', 'two'].collect { clientId ->
+            Thread.startVirtualThread {
+                results[clientId] = Optional.ofNullable(provider.getClientById(clientId, 'profile'))
+            }
+        }
+        lookups*.join()
+
+        then: 'as many clients as are in the batch are requested, and the next page is followed'
+        1 * mockedClient.withQueries({ it.count == ['2'] && !it.cursor }) >> mockedClient
+        1 * mockedClient.withQueries({ it.count == ['2'] && it.cursor == ['c2'] }) >> mockedClient
+        2 * mockedRequestBuilder.method('GET') >>> [firstPage, secondPage]
+
+        and: 'both clients are found'
+        results['one'].get().clientId == 'one'
+        results['two'].get().clientId == 'two'
+    }
+
+    def "Database clients are read, listed and counted from the replica once it is loaded"() {
+        given: 'a mocked web-service client that lists an active and an inactive client'
+        def mockedRequestBuilder = Mock(HttpRequest.Builder)
+        mockedRequestBuilder.method(_) >> { Stub(HttpRequest) {
+            response() >> okResponse('[{"client_id": "one", "status": "ACTIVE"}, {"client_id": "two", "status": "INACTIVE"}]')
+        } }
+        mockedRequestBuilder._ >> mockedRequestBuilder
+
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> mockedRequestBuilder
+        }
+        mockedClient.withQueries(_) >> mockedClient
+
+        and: 'a JSON DAP with the client replica enabled'
+        def provider = new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                maxPageSize() >> 1024
+                countUsing() >> DatabaseClientConfiguration.CountUsing.LIST_ENDPOINT
+                clientReplica() >> Optional.of(Stub(DatabaseClientConfiguration.ClientReplica) {
+                    refreshInterval() >> 60
+                    reloadInterval() >> 3600
+                    maxClients() >> 100
+                })
+            }
+            webServiceClient() >> mockedClient
+        })
+
+        and: 'the replica of the profile is loaded'
+        mockedClient.withPath(_) >> mockedClient
+        new PollingConditions(timeout: 5).eventually {
+            // The listing of the JSON service does not filter, so only the replica counts one active client
+            assert provider.getClientCountBy('profile', null, true) == 1
+        }
+
+        when: 'a client is read and the active clients are listed'
+        def client = provider.getClientById('one', 'profile')
+        def unknownClient = provider.getClientById('three', 'profile')
+        def result = provider.getAllClientsBy('profile', null, null, null, true)
+
+        then: 'no request is made to the JSON service'
+        0 * mockedClient.withPath(_)
+
+        and: 'the clients are answered from the replica'
+        client.clientId == 'one'
+        unknownClient == null
+        result.items*.clientId == ['one']
+        result.cursor == null
+    }
+
+    private WebServiceClient listingClient(HttpRequest.Builder requestBuilder) {
+        def mockedClient = Mock(WebServiceClient) {
+            request() >> requestBuilder
+        }
+        mockedClient.withPath(_) >> mockedClient
+        mockedClient.withQueries(_) >> mockedClient
+        mockedClient
+    }
+
+    private JsonDatabaseClientDataAccessProvider countingByListingProvider(WebServiceClient webServiceClient) {
+        new JsonDatabaseClientDataAccessProvider(Mock(JsonDataAccessProviderConfiguration, defaultResponse: OptionalFeaturesDisabled.INSTANCE) {
+            getDatabaseClientConfiguration() >> Stub(DatabaseClientConfiguration) {
+                urlPath() >> '/api/dbclients/:profileId'
+                clientCache() >> Optional.empty()
+                countUsing() >> DatabaseClientConfiguration.CountUsing.LIST_ENDPOINT
+                maxPageSize() >> 1024
+            }
+            webServiceClient() >> webServiceClient
+        })
+    }
+
+    private HttpResponse okResponse(String responseBody, List<String> linkHeaders = []) {
+        Stub(HttpResponse) {
+            statusCode() >> 200
+            body(_) >> { HttpResponse.BodyConverter converter ->
+                converter.convert(new ByteArrayInputStream(responseBody.getBytes('UTF-8')))
+            }
+            headers() >> Stub(HttpHeaders) {
+                allValues('Content-Type') >> ['application/json']
+                allValues('Link') >> linkHeaders
+            }
+        }
+    }
+}
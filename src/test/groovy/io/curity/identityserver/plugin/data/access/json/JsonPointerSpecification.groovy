@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JsonPointerSpecification extends Specification {
+
+    static final String DOCUMENT = '{"meta": {"pages": [1, 2, {"next": "abc"}]}, ' +
+            '"data": {"user": {"subject": "johndoe", "groups": ["admins"]}}, ' +
+            '"a/b": {"c~d": 5}, "items": [{"id": 0}, {"id": 1}]}'
+
+    @Unroll
+    def "The pointer #pointer selects the value it refers to"() {
+        given:
+        def reader = new JsonStreamReader(new StringReader(DOCUMENT))
+
+        when:
+        def found = JsonPointer.parse(pointer).seek(reader)
+
+        then:
+        found
+        reader.nextValue() == expected
+
+        where:
+        pointer               || expected
+        '/data/user'          || [subject: 'johndoe', groups: ['admins']]
+        '/data/user/subject'  || 'johndoe'
+        '/a~1b/c~0d'          || 5
+        '/items/1'            || [id: 1]
+        '/meta/pages/2/next'  || 'abc'
+    }
+
+    @Unroll
+    def "The pointer #pointer does not select anything"() {
+        given:
+        def reader = new JsonStreamReader(new StringReader(DOCUMENT))
+
+        expect:
+        !JsonPointer.parse(pointer).seek(reader)
+
+        where:
+        pointer << ['/data/nobody', '/items/2', '/items/01', '/items/id', '/data/user/subject/x']
+    }
+
+    def "A pointer must start with a slash"() {
+        when:
+        JsonPointer.parse('data/user')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
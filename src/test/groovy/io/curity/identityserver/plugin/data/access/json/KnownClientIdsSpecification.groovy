@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.DatabaseClientConfiguration
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class KnownClientIdsSpecification extends Specification {
+
+    def "A client id that is not in the filter is only answered as absent until the absent time to live has passed"() {
+        given: 'a filter of a profile with one client, which is not rebuilt during the test'
+        def knownClientIds = new KnownClientIds(Stub(DatabaseClientConfiguration.KnownClientIdFilter) {
+            rebuildInterval() >> 3600
+            expectedClients() >> 100
+            absentTimeToLive() >> 1
+        }, { profileId, consumer -> consumer.accept('one') })
+
+        expect: 'an unknown client is answered as absent once the filter is built'
+        new PollingConditions(timeout: 5).eventually {
+            assert knownClientIds.isDefinitelyAbsent('profile', 'two')
+        }
+        !knownClientIds.isDefinitelyAbsent('profile', 'one')
+
+        and: 'it might be present once the absent time to live has passed, since it could have been created elsewhere'
+        new PollingConditions(timeout: 5).eventually {
+            assert !knownClientIds.isDefinitelyAbsent('profile', 'two')
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.DeadlineConfiguration
+import se.curity.identityserver.sdk.http.HttpResponse
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+class OperationDeadlinesSpecification extends Specification {
+
+    def configuration = Stub(DeadlineConfiguration) {
+        getClient() >> 200
+        updateClient() >> 200
+        maxRetries() >> 2
+        retryBackoff() >> 1
+    }
+
+    def okResponse = Stub(HttpResponse) { statusCode() >> 200 }
+    def unavailableResponse = Stub(HttpResponse) { statusCode() >> 503 }
+
+    def "A request that does not complete within the deadline fails and is counted as missed"() {
+        given:
+        def deadlines = new OperationDeadlines(configuration)
+
+        when:
+        deadlines.send(BackendOperation.GET_CLIENT, {
+            Thread.sleep(5000)
+            okResponse
+        })
+
+        then:
+        thrown(DeadlineExceededException)
+        deadlines.missedCount() == 1
+    }
+
+    def "A request that writes is completed on the calling thread when it is late, and is counted as missed"() {
+        given:
+        def deadlines = new OperationDeadlines(configuration)
+        def callingThread = Thread.currentThread()
+        Thread sendingThread = null
+
+        when:
+        def response = deadlines.send(BackendOperation.UPDATE_CLIENT, {
+            sendingThread = Thread.currentThread()
+            Thread.sleep(300)
+            okResponse
+        })
+
+        then:
+        response.statusCode() == 200
+        sendingThread == callingThread
+        deadlines.missedCount() == 1
+    }
+
+    def "A request that only reads is retried when it fails"() {
+        given:
+        def deadlines = new OperationDeadlines(configuration)
+        def calls = new AtomicInteger()
+
+        when:
+        def response = deadlines.send(BackendOperation.GET_CLIENT, {
+            calls.incrementAndGet() < 3 ? unavailableResponse : okResponse
+        })
+
+        then:
+        response.statusCode() == 200
+        calls.get() == 3
+        deadlines.retriedCount() == 2
+        deadlines.missedCount() == 0
+    }
+
+    def "A request that writes is not retried"() {
+        given:
+        def deadlines = new OperationDeadlines(configuration)
+        def calls = new AtomicInteger()
+
+        when:
+        def response = deadlines.send(BackendOperation.UPDATE_CLIENT, {
+            calls.incrementAndGet()
+            unavailableResponse
+        })
+
+        then:
+        response.statusCode() == 503
+        calls.get() == 1
+        deadlines.retriedCount() == 0
+    }
+
+    def "A request is not retried when the deadline can't fit another attempt"() {
+        given:
+        def deadlines = new OperationDeadlines(configuration)
+        def calls = new AtomicInteger()
+
+        when:
+        def response = deadlines.send(BackendOperation.GET_CLIENT, {
+            calls.incrementAndGet()
+            Thread.sleep(120)
+            unavailableResponse
+        })
+
+        then:
+        response.statusCode() == 503
+        calls.get() == 1
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import org.spockframework.mock.IDefaultResponse
+import org.spockframework.mock.IMockInvocation
+import org.spockframework.mock.ZeroOrNullResponse
+
+/**
+ * Default response for mocked configurations that returns an empty {@link Optional} for every optional setting, so
+ * that the opt-in features of a provider stay disabled unless a feature method stubs them.
+ */
+class OptionalFeaturesDisabled implements IDefaultResponse {
+
+    static final OptionalFeaturesDisabled INSTANCE = new OptionalFeaturesDisabled()
+
+    @Override
+    Object respond(IMockInvocation invocation) {
+        invocation.method.returnType == Optional ? Optional.empty() : ZeroOrNullResponse.INSTANCE.respond(invocation)
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.HedgingConfiguration
+import se.curity.identityserver.sdk.http.HttpResponse
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RequestHedgerSpecification extends Specification {
+
+    def fastResponse = Stub(HttpResponse)
+    def slowResponse = Stub(HttpResponse)
+
+    def "A slow request is sent again and the response that arrives first is used"() {
+        given: 'a hedger that knows the latency of the operation'
+        def hedger = newHedger(5)
+        128.times { hedger.send(BackendOperation.GET_CLIENT, { fastResponse }) }
+
+        and: 'a request that is slow the first time'
+        def calls = new AtomicInteger()
+        def request = {
+            if (calls.incrementAndGet() == 1) {
+                Thread.sleep(2000)
+                return slowResponse
+            }
+
+            fastResponse
+        }
+
+        when:
+        def response = hedger.send(BackendOperation.GET_CLIENT, request)
+
+        then:
+        response.is(fastResponse)
+        calls.get() == 2
+        hedger.hedgedCount() == 1
+    }
+
+    def "The slower of two hedged requests is interrupted, and the body of its response is closed"() {
+        given: 'a hedger that knows the latency of the operation'
+        def hedger = newHedger(5)
+        128.times { hedger.send(BackendOperation.GET_CLIENT, { fastResponse }) }
+
+        and: 'a slow request that still returns a response when it is interrupted'
+        def interrupted = new CountDownLatch(1)
+        def closed = new CountDownLatch(1)
+        def lateResponse = Stub(HttpResponse) {
+            body(_) >> {
+                closed.countDown()
+                null
+            }
+        }
+        def calls = new AtomicInteger()
+        def request = {
+            if (calls.incrementAndGet() == 1) {
+                try {
+                    Thread.sleep(5000)
+                } catch (InterruptedException ignored) {
+                    interrupted.countDown()
+                }
+                return lateResponse
+            }
+
+            fastResponse
+        }
+
+        when:
+        def response = hedger.send(BackendOperation.GET_CLIENT, request)
+
+        then:
+        response.is(fastResponse)
+        interrupted.await(1, TimeUnit.SECONDS)
+        closed.await(1, TimeUnit.SECONDS)
+    }
+
+    def "A slow request is not sent again when the hedge rate is used up"() {
+        given:
+        def hedger = newHedger(0)
+        128.times { hedger.send(BackendOperation.GET_CLIENT, { fastResponse }) }
+        def calls = new AtomicInteger()
+
+        when:
+        def response = hedger.send(BackendOperation.GET_CLIENT, {
+            calls.incrementAndGet()
+            Thread.sleep(50)
+            slowResponse
+        })
+
+        then:
+        response.is(slowResponse)
+        calls.get() == 1
+        hedger.hedgedCount() == 0
+    }
+
+    private RequestHedger newHedger(int maxHedgeRate) {
+        new RequestHedger(Stub(HedgingConfiguration) {
+            delayPercentile() >> 95
+            minDelay() >> 1
+            maxHedgeRate() >> maxHedgeRate
+        })
+    }
+}
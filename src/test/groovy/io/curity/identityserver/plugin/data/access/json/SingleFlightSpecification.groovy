@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SingleFlightSpecification extends Specification {
+
+    def "Concurrent calls with the same key share the result of one call"() {
+        given: 'a single flight and a call that blocks until released'
+        def singleFlight = new SingleFlight<String, String>()
+        def calls = new AtomicInteger()
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def executor = Executors.newFixedThreadPool(4)
+
+        when: 'the first call is in flight'
+        def first = executor.submit({
+            singleFlight.execute('key', {
+                calls.incrementAndGet()
+                started.countDown()
+                release.await()
+                'result'
+            })
+        } as java.util.concurrent.Callable)
+        started.await(5, TimeUnit.SECONDS)
+
+        and: 'identical calls are made'
+        def others = (1..3).collect {
+            executor.submit({ singleFlight.execute('key', { calls.incrementAndGet(); 'other' }) } as java.util.concurrent.Callable)
+        }
+
+        and: 'the identical calls are waiting'
+        def waitUntil = System.currentTimeMillis() + 5000
+        while (singleFlight.coalescedCount() < 3 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10)
+        }
+        release.countDown()
+
+        then: 'all callers get the result of the first call'
+        first.get(5, TimeUnit.SECONDS) == 'result'
+        others*.get(5, TimeUnit.SECONDS) == ['result', 'result', 'result']
+
+        and: 'only one call was made'
+        calls.get() == 1
+        singleFlight.coalescedCount() == 3
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "A call is made again once the previous identical call completed"() {
+        given:
+        def singleFlight = new SingleFlight<String, Integer>()
+        def calls = new AtomicInteger()
+
+        when:
+        def first = singleFlight.execute('key', { calls.incrementAndGet() })
+        def second = singleFlight.execute('key', { calls.incrementAndGet() })
+
+        then:
+        first == 1
+        second == 2
+        singleFlight.coalescedCount() == 0
+    }
+
+    def "A caller that shares the call of a bulk lookup makes the call itself when the stream is closed"() {
+        given: 'a bulk lookup that makes a call which blocks until it is interrupted'
+        def singleFlight = new SingleFlight<String, String>()
+        def calls = new AtomicInteger()
+        def started = new CountDownLatch(1)
+        def stream = BulkLookup.stream(['key'].iterator(), 1, { String key ->
+            singleFlight.execute(key, {
+                calls.incrementAndGet()
+                started.countDown()
+                try {
+                    Thread.sleep(10000)
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt()
+                    throw new BackendUnavailableException('Interrupted')
+                }
+                'bulk'
+            })
+        })
+        stream.iterator().hasNext()
+        started.await(5, TimeUnit.SECONDS)
+
+        and: 'another caller that shares the call'
+        def executor = Executors.newSingleThreadExecutor()
+        def other = executor.submit({
+            singleFlight.execute('key', { calls.incrementAndGet(); 'other' })
+        } as java.util.concurrent.Callable)
+        def waitUntil = System.currentTimeMillis() + 5000
+        while (singleFlight.coalescedCount() < 1 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10)
+        }
+
+        when: 'the stream is closed'
+        stream.close()
+
+        then: 'the other caller does not fail, but makes the call itself'
+        other.get(5, TimeUnit.SECONDS) == 'other'
+        calls.get() == 2
+
+        cleanup:
+        executor.shutdownNow()
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.AttributesConfiguration
+import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration
+import io.curity.identityserver.plugin.data.access.json.config.JsonDataAccessProviderConfiguration
+import io.curity.identityserver.plugin.data.access.json.config.VerifiedAttributesConfiguration
+import se.curity.identityserver.sdk.attribute.Attributes
+import spock.lang.Specification
+
+class VerifiedAttributesStoreSpecification extends Specification {
+
+    def "The attributes of a verified subject are used by one lookup"() {
+        given:
+        def store = new VerifiedAttributesStore(configuration('/users/:subject'))
+        store.put('alice', Attributes.fromMap([name: 'Alice']))
+
+        when:
+        def attributes = store.take('alice')
+
+        then:
+        store.isEnabled()
+        attributes.asMap() == [name: 'Alice']
+        store.take('alice') == null
+        store.reusedCount() == 1
+    }
+
+    def "Attributes are not handed over when the attribute lookup makes another request"() {
+        expect:
+        !new VerifiedAttributesStore(configuration('/attributes/:subject')).isEnabled()
+    }
+
+    def "The attributes are forgotten when the store is closed with its data source"() {
+        given:
+        def store = new VerifiedAttributesStore(configuration('/users/:subject'))
+        store.put('alice', Attributes.fromMap([name: 'Alice']))
+
+        when:
+        store.close()
+
+        then:
+        store.take('alice') == null
+    }
+
+    private JsonDataAccessProviderConfiguration configuration(String attributesUrlPath) {
+        Stub(JsonDataAccessProviderConfiguration) {
+            reuseVerifiedAttributes() >> Optional.of(Stub(VerifiedAttributesConfiguration) {
+                timeToLive() >> 10
+                maxEntries() >> 100
+            })
+            getAttributesConfiguration() >> Stub(AttributesConfiguration) {
+                provideSubject() >> Stub(AttributesConfiguration.ProvideSubject) {
+                    urlPath() >> Optional.of(attributesUrlPath)
+                }
+            }
+            getCredentialAccessConfiguration() >> Stub(CredentialAccessConfiguration) {
+                urlPath() >> '/users/:subject'
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2024 Curity AB
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.curity.identityserver.plugin.data.access.json
+
+import io.curity.identityserver.plugin.data.access.json.config.CredentialAccessConfiguration
+import se.curity.identityserver.sdk.attribute.AuthenticationAttributes
+import spock.lang.Specification
+
+class VerifiedCredentialCacheSpecification extends Specification {
+
+    def cache = new VerifiedCredentialCache(Stub(CredentialAccessConfiguration.VerifiedCredentialCache) {
+        maxEntries() >> 10
+        timeToLive() >> 60
+        hashIterations() >> 1000
+    })
+
+    def attributes = Stub(AuthenticationAttributes)
+
+    def "A verified password is remembered"() {
+        when: 'a password is verified'
+        cache.recordVerified('ash', 'pikachu', attributes, cache.generation('ash'))
+
+        then: 'only the same password is verified again from the cache'
+        cache.get('ash', 'pikachu').is(attributes)
+        cache.get('ash', 'raichu') == null
+    }
+
+    def "A verification that started before the password was updated is not remembered"() {
+        given: 'a verification of the old password that is in flight'
+        def generation = cache.generation('ash')
+
+        when: 'the password is updated before the verification completes'
+        cache.invalidate('ash')
+        cache.recordVerified('ash', 'pikachu', attributes, generation)
+
+        then: 'the old password is not verified from the cache'
+        cache.get('ash', 'pikachu') == null
+    }
+}